@@ -0,0 +1,39 @@
+#! /usr/bin/bash
+
+# JMH benchmarks of the search hot paths, see README.md.
+# All arguments are passed on to JMH, e.g. `bench/bench.sh SearchBenchmark -p depth=10`.
+# The GC profiler is always on, so every benchmark also reports its allocation rate.
+
+cd "$(dirname "$0")"
+
+repository=https://repo1.maven.org/maven2
+# SHA-256 of every jar, checked on each run so a corrupted or tampered download is never put on the classpath.
+# Taken from the jars on Maven Central, whose published SHA-1 sums they also match.
+jars=(
+    dc0eaf2bbf0036a70b60798c785d6e03a9daf06b68b8edb0f1ba9eb3421baeb3 org/openjdk/jmh/jmh-core/1.37/jmh-core-1.37.jar
+    6a5604b5b804e0daca1145df1077609321687734a8b49387e49f10557c186c77 org/openjdk/jmh/jmh-generator-annprocess/1.37/jmh-generator-annprocess-1.37.jar
+    df26cc58f235f477db07f753ba5a3ab243ebe5789d9f89ecf68dd62ea9a66c28 net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar
+    1e56d7b058d28b65abd256b8458e3885b674c1d588fa43cd7d1cbb9c7ef2b308 org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
+)
+
+mkdir -p lib
+classpath=
+for ((i = 0; i < ${#jars[*]}; i += 2)); do
+    sum=${jars[i]}
+    jar=${jars[i + 1]}
+    file=lib/$(basename $jar)
+    if [ ! -f $file ]; then
+        curl -sSf -o $file $repository/$jar || exit 1
+    fi
+    if ! echo "$sum  $file" | sha256sum -c --status; then
+        echo "$file does not have the expected SHA-256 sum $sum, removed it." >&2
+        rm -f $file
+        exit 1
+    fi
+    classpath=$classpath$file:
+done
+
+rm -rf classes
+# the annotation processor generates the benchmark harness classes and the list of benchmarks
+javac -encoding UTF-8 -d classes -cp $classpath -processorpath $classpath $(find ../src src -name '*.java') || exit 1
+java -cp classes:$classpath org.openjdk.jmh.Main -prof gc "$@"
@@ -0,0 +1,81 @@
+package torgeros.connect3.agent;
+
+import torgeros.connect3.Board;
+import torgeros.connect3.Board.Field;
+
+/**
+ * the standard positions all benchmarks run on: the start position and two middle game positions per board size.
+ * Positions are written row by row from y=1, W and B are stones, every other char is an empty field.
+ * White is to move in all of them.
+ */
+final class BenchmarkPositions {
+    /**
+     * names for the @Param of the benchmarks.
+     */
+    static final String SMALL_START = "5x4-start";
+    static final String SMALL_MIDDLE_1 = "5x4-middle-1";
+    static final String SMALL_MIDDLE_2 = "5x4-middle-2";
+    static final String LARGE_START = "7x6-start";
+    static final String LARGE_MIDDLE_1 = "7x6-middle-1";
+    static final String LARGE_MIDDLE_2 = "7x6-middle-2";
+
+    private BenchmarkPositions() {
+    }
+
+    static Board get(final String name) {
+        switch (name) {
+            case SMALL_START:
+                return parse("W...B",
+                             "B...W",
+                             "W...B",
+                             "B...W");
+            case SMALL_MIDDLE_1:
+                return parse(".WB..",
+                             "B..W.",
+                             "W.B..",
+                             "..B.W");
+            case SMALL_MIDDLE_2:
+                return parse("..W..",
+                             ".BWB.",
+                             ".W.B.",
+                             "B...W");
+            case LARGE_START:
+                return parse(".......",
+                             ".W...B.",
+                             ".B...W.",
+                             ".W...B.",
+                             ".B...W.",
+                             ".......");
+            case LARGE_MIDDLE_1:
+                return parse(".......",
+                             "..W.B..",
+                             ".B.W.W.",
+                             "..W.B..",
+                             "..B....",
+                             ".......");
+            case LARGE_MIDDLE_2:
+                return parse("......B",
+                             ".....W.",
+                             "..WB...",
+                             "..BW...",
+                             ".......",
+                             "....B.W");
+            default:
+                throw new IllegalArgumentException("unknown position " + name);
+        }
+    }
+
+    private static Board parse(final String... rows) {
+        final Board board = new Board(rows[0].length(), rows.length);
+        for (int y = 1; y <= board.height; y++) {
+            for (int x = 1; x <= board.width; x++) {
+                final char c = rows[y-1].charAt(x-1);
+                board.set(x, y, c == 'W' ? Field.WHITE : c == 'B' ? Field.BLACK : Field.EMPTY);
+            }
+        }
+        if (board.isTerminal()) {
+            throw new IllegalStateException("benchmark position is already decided");
+        }
+        return board;
+    }
+}
@@ -0,0 +1,106 @@
+package torgeros.connect3.agent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import torgeros.connect3.Board;
+import torgeros.connect3.Board.Field;
+import torgeros.connect3.ConnectThree.PlayerColor;
+
+/**
+ * the work the search does at every node: move generation, make/unmake (which keeps the hashes and run counts
+ * up to date), the terminal test, the heuristic and the threat detection.
+ * Board#isTerminal is the terminal test of the server side game, for comparison, with the full scan
+ * and with the check of the runs through one field (the last move, here the field of a white stone).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+    @Param({
+        BenchmarkPositions.SMALL_START, BenchmarkPositions.SMALL_MIDDLE_1, BenchmarkPositions.SMALL_MIDDLE_2,
+        BenchmarkPositions.LARGE_START, BenchmarkPositions.LARGE_MIDDLE_1, BenchmarkPositions.LARGE_MIDDLE_2
+    })
+    public String position;
+
+    Board board;
+    Ai ai;
+    Bitboard node;
+    int[] moves;
+    int moveCount;
+    int stoneX;
+    int stoneY;
+
+    @Setup
+    public void setup() {
+        board = BenchmarkPositions.get(position);
+        final AiOptions options = new AiOptions();
+        options.transpositionTableMb = 1;
+        ai = new Ai(PlayerColor.WHITE_PLAYER, options);
+        ai.updateInternalBoard(board);
+        node = ai.currentBoard;
+        moves = new int[4 * Long.bitCount(node.layout.onBoard)];
+        moveCount = node.generateMoves(Field.WHITE, moves);
+        final int stone = Long.numberOfTrailingZeros(node.white);
+        stoneX = node.layout.x(stone) + 1;
+        stoneY = node.layout.y(stone) + 1;
+    }
+
+    @Benchmark
+    public int generateMoves() {
+        return node.generateMoves(Field.WHITE, moves);
+    }
+
+    /**
+     * makes and unmakes every move of the position, as the search does at an inner node.
+     */
+    @Benchmark
+    public long makeUnmakeMoves() {
+        long hashes = 0;
+        for (int i = 0; i < moveCount; i++) {
+            node.makeMove(Field.WHITE, moves[i]);
+            hashes ^= node.hash;
+            node.unmakeMove(Field.WHITE, moves[i]);
+        }
+        return hashes;
+    }
+
+    @Benchmark
+    public boolean isTerminal() {
+        return ai.isTerminal(node);
+    }
+
+    @Benchmark
+    public int heuristic() {
+        return ai.heuristic(node);
+    }
+
+    @Benchmark
+    public long threats() {
+        return node.threats(Field.WHITE) | node.threats(Field.BLACK);
+    }
+
+    @Benchmark
+    public boolean boardIsTerminal() {
+        return board.isTerminal();
+    }
+
+    @Benchmark
+    public boolean boardIsTerminalLastMove() {
+        return board.isTerminal(stoneX, stoneY);
+    }
+}
@@ -0,0 +1,81 @@
+package torgeros.connect3.agent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import torgeros.connect3.ConnectThree.PlayerColor;
+
+/**
+ * iterative deepening of one searcher up to a fixed depth, from an empty transposition table.
+ * Unlike a timed search, the work does not depend on the speed of the machine, so the time per search
+ * and the nodes counter can be compared between engine versions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({
+        BenchmarkPositions.SMALL_START, BenchmarkPositions.SMALL_MIDDLE_1, BenchmarkPositions.SMALL_MIDDLE_2,
+        BenchmarkPositions.LARGE_START, BenchmarkPositions.LARGE_MIDDLE_1, BenchmarkPositions.LARGE_MIDDLE_2
+    })
+    public String position;
+
+    @Param({"8"})
+    public int depth;
+
+    Ai ai;
+    Ai.Searcher searcher;
+
+    /**
+     * nodes visited by the last search, reported by JMH next to the time per search.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    @Setup
+    public void setup() {
+        final AiOptions options = new AiOptions();
+        options.maxDepth = depth;
+        options.moveTimeMs = Integer.MAX_VALUE;
+        options.transpositionTableMb = 16;
+        ai = new Ai(PlayerColor.WHITE_PLAYER, options);
+        ai.updateInternalBoard(BenchmarkPositions.get(position));
+        searcher = ai.searchers[0];
+    }
+
+    /**
+     * every search starts from scratch, only the history scores of the move ordering are carried over (and aged).
+     */
+    @Setup(Level.Invocation)
+    public void newSearch() {
+        ai.transpositionTable.clear();
+        ai.timeManager.startMove();
+        searcher.prepare();
+    }
+
+    @Benchmark
+    public int search(final Nodes counter) {
+        searcher.iterativeDeepening(1);
+        counter.nodes = searcher.nodes;
+        return searcher.bestRootMove;
+    }
+}
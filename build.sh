@@ -5,10 +5,33 @@ sourcefiles=(
     src/torgeros/connect3/Ternary.java
     src/torgeros/connect3/Board.java
     src/torgeros/connect3/GameClient.java
+    src/torgeros/connect3/GameServer.java
+    src/torgeros/connect3/GameHost.java
+    src/torgeros/connect3/Tournament.java
+    src/torgeros/connect3/MoveLatencies.java
     src/torgeros/connect3/agent/Agent.java
     src/torgeros/connect3/agent/Human.java
     src/torgeros/connect3/agent/Ai.java
+    src/torgeros/connect3/agent/MctsAi.java
     src/torgeros/connect3/agent/EvaluatableAi.java
+    src/torgeros/connect3/agent/Bitboard.java
+    src/torgeros/connect3/agent/BitboardLayout.java
+    src/torgeros/connect3/agent/Zobrist.java
+    src/torgeros/connect3/agent/RepetitionCounter.java
+    src/torgeros/connect3/agent/Move.java
+    src/torgeros/connect3/agent/TranspositionTable.java
+    src/torgeros/connect3/agent/MoveOrdering.java
+    src/torgeros/connect3/agent/AiOptions.java
+    src/torgeros/connect3/agent/SearchStatistics.java
+    src/torgeros/connect3/agent/SearchEvent.java
+    src/torgeros/connect3/agent/LatencyHistogram.java
+    src/torgeros/connect3/agent/TimeManager.java
+    src/torgeros/connect3/agent/SearchTask.java
+    src/torgeros/connect3/agent/SearchPool.java
+    src/torgeros/connect3/agent/Solution.java
+    src/torgeros/connect3/agent/RetrogradeSolver.java
+    src/torgeros/connect3/agent/Perft.java
+    src/torgeros/connect3/agent/TerminalCheck.java
     src/torgeros/connect3/Util.java
 )
 
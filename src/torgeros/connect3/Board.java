@@ -1,5 +1,8 @@
 package torgeros.connect3;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 import torgeros.connect3.Util;
 
 public class Board {
@@ -17,17 +20,59 @@ public class Board {
         }
     }
 
+    /**
+     * neighbour tables of each board size, see windows.
+     */
+    private static final ConcurrentHashMap<Integer, int[][]> WINDOWS = new ConcurrentHashMap<Integer, int[][]>();
+
     /**
      * internal state representation
      */
     private Field[][] board;
     public final int width;
     public final int height;
+    /**
+     * per field (x-1 + (y-1) * width): the other two fields of every run of three through it,
+     * as pairs of field indices. Shared by all boards of the same size.
+     */
+    private final int[][] windows;
 
     public Board(int width, int height) {
         this.width = width;
         this.height = height;
         board = new Field[width][height];
+        windows = WINDOWS.computeIfAbsent(width * 100 + height, size -> windows(width, height));
+    }
+
+    private static int[][] windows(int width, int height) {
+        final int[] stepX = {0, 1, 1, -1};
+        final int[] stepY = {1, 1, 0, 1};
+        final int[][] windows = new int[width * height][];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int[] others = new int[24];
+                int count = 0;
+                for (int d = 0; d < stepX.length; d++) {
+                    // the field is the first, second or third of the run
+                    for (int k = 0; k < 3; k++) {
+                        final int startX = x - k * stepX[d];
+                        final int startY = y - k * stepY[d];
+                        final int endX = startX + 2 * stepX[d];
+                        final int endY = startY + 2 * stepY[d];
+                        if (startX < 0 || startY < 0 || endX < 0 || startX >= width || endX >= width || endY >= height) {
+                            continue;
+                        }
+                        for (int i = 0; i < 3; i++) {
+                            if (i != k) {
+                                others[count++] = (startX + i * stepX[d]) + (startY + i * stepY[d]) * width;
+                            }
+                        }
+                    }
+                }
+                windows[x + y * width] = Arrays.copyOf(others, count);
+            }
+        }
+        return windows;
     }
 
     public Field get(int x, int y) {
@@ -53,6 +98,9 @@ public class Board {
         return (x>0) && (y>0) && (x<=width) && (y<=height);
     }
 
+    /**
+     * checks the whole board for three in a row.
+     */
     public boolean isTerminal() {
         //vertical
         //diagonal \
@@ -90,6 +138,26 @@ public class Board {
         return false;
     }
 
+    /**
+     * checks only the runs of three through the field x,y, e.g. the field a stone has just moved to.
+     * Since a move can only complete a run through that field, this is the same as isTerminal
+     * as long as there was no three in a row before the move.
+     */
+    public boolean isTerminal(int x, int y) {
+        final Field f = get(x, y);
+        if (f == Field.EMPTY) {
+            return false;
+        }
+        final int[] others = windows[(x-1) + (y-1) * width];
+        for (int i = 0; i < others.length; i += 2) {
+            if (f == get(others[i] % width + 1, others[i] / width + 1)
+                    && f == get(others[i+1] % width + 1, others[i+1] / width + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * prints the current game state using Util.printFieldArray(Field[][])
      */
@@ -1,7 +1,13 @@
 package torgeros.connect3;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import torgeros.connect3.Board.Field;
 import torgeros.connect3.agent.Agent;
+import torgeros.connect3.agent.LatencyHistogram;
+import torgeros.connect3.agent.SearchStatistics;
 import torgeros.connect3.GameClient;
 
 public class ConnectThree {
@@ -28,8 +34,31 @@ public class ConnectThree {
     final private PlayerColor ownColor;
     final private PlayerColor opponentColor;
     private GameClient client;
+    /**
+     * number of moves of both players so far.
+     */
+    private int ply;
+    /**
+     * time of every getBestMove and round trip of every own move, written to latencyFile at the end of the game.
+     */
+    private final MoveLatencies latencies;
+    private final Path latencyFile;
 
     public ConnectThree(String gamename, PlayerColor color, Agent agent, boolean largegrid) {
+        this(gamename, color, agent, largegrid, GameClient.DEFAULT_HOSTNAME, GameClient.DEFAULT_PORT);
+    }
+
+    /**
+     * @param hostname,port of the game server
+     */
+    public ConnectThree(String gamename, PlayerColor color, Agent agent, boolean largegrid, String hostname, int port) {
+        this(gamename, color, agent, largegrid, new GameClient(gamename, color.getClientName(), hostname, port));
+    }
+
+    /**
+     * @param client for this game and color, not connected yet
+     */
+    public ConnectThree(String gamename, PlayerColor color, Agent agent, boolean largegrid, GameClient client) {
         System.out.println("===========================================");
         System.out.printf("Starting game %s as color %s%n", gamename, color);
         System.out.printf("Game Representation: WHITE %c, BLACK %c%n", Field.WHITE.getChar(), Field.BLACK.getChar());
@@ -37,61 +66,108 @@ public class ConnectThree {
         this.agent = agent;
         this.ownColor = color;
         this.opponentColor = color == PlayerColor.WHITE_PLAYER ? PlayerColor.BLACK_PLAYER : PlayerColor.WHITE_PLAYER;
-
-        client = new GameClient(gamename, color.getClientName());
+        latencies = new MoveLatencies(board.width, board.height);
+        latencyFile = Paths.get("latency-" + gamename + "-" + color.getClientName() + ".csv");
+        this.client = client;
     }
 
+    /**
+     * plays the game until it is over. If the server ends the game early or cannot be reached (see GameClient.Failure),
+     * the reason is printed and play returns as well. The agent is closed in either case, see Agent#close.
+     */
     public void play() {
         setBoardStartPosition();
         board.print();
 
-        client.connect();
+        try {
+            client.connect();
 
-        if (ownColor == PlayerColor.BLACK_PLAYER) {
-            // if we start as black, we have to wait for one move.
-            String move = client.getOpponentMove();
-            // move is considered to be valid as it has passed through the server
-            processMove(opponentColor, move);
-            board.print();
-        }
-
-        while (true) {
-            // update agent data
-            agent.updateInternalBoard(board);
-            // ask agent to create a move
-            String move;
-            boolean moveValid;
-            do {
-                move = agent.getBestMove();
-                moveValid = processMove(ownColor, move);
-            } while (!moveValid);
-            // send the move to the client
-            client.makeMove(move);
-            // update agents board, the board variable got changed by processMove.
-            // update is processed after makeMove to be out of networking time-of-interest.
-            agent.updateInternalBoard(board);
-            // update the UI
-            board.print();
-            if (board.isTerminal()) {
-                System.out.println("you win.");
-                break;
+            if (ownColor == PlayerColor.BLACK_PLAYER) {
+                // if we start as black, we have to wait for one move.
+                String move = client.getOpponentMove();
+                // move is considered to be valid as it has passed through the server
+                processMove(opponentColor, move);
+                board.print();
             }
-            // get opponents move
-            System.out.println("waiting for opponents move");
-            boolean opMoveCoorect = processMove(opponentColor, client.getOpponentMove());
-            if (!opMoveCoorect) {
-                System.err.println("Opponents move was incorrect.");
-            }
-            // update the UI
-            board.print();
-            if (board.isTerminal()) {
-                System.out.println("opponent wins.");
-                break;
+
+            while (true) {
+                // update agent data
+                agent.updateInternalBoard(board);
+                // ask agent to create a move
+                String move;
+                boolean moveValid;
+                final long start = System.nanoTime();
+                do {
+                    move = agent.getBestMove();
+                    moveValid = processMove(ownColor, move);
+                } while (!moveValid);
+                recordLatency(System.nanoTime() - start);
+                final boolean won = isWinningMove(board, move);
+                // send the move to the server, the confirmation is read after the agent got going again
+                client.makeMove(move);
+                // update agents board, the board variable got changed by processMove.
+                agent.updateInternalBoard(board);
+                // update the UI
+                board.print();
+                if (won) {
+                    latencies.recordRoundTrip(client.confirmMove());
+                    System.out.println("you win.");
+                    break;
+                }
+                // get opponents move
+                System.out.println("waiting for opponents move");
+                agent.opponentThinking();
+                latencies.recordRoundTrip(client.confirmMove());
+                final String opponentMove = client.getOpponentMove();
+                boolean opMoveCoorect = processMove(opponentColor, opponentMove);
+                if (!opMoveCoorect) {
+                    System.err.println("Opponents move was incorrect.");
+                }
+                // update the UI
+                board.print();
+                if (opMoveCoorect && isWinningMove(board, opponentMove)) {
+                    System.out.println("opponent wins.");
+                    break;
+                }
             }
+        } catch (GameClient.Failure ex) {
+            System.err.printf("game over (%s): %s%n", ex.reason, ex.getMessage());
+        } finally {
+            client.close();
+            // stops pondering, if the agent is still at it, and the threads of the agent
+            agent.close();
+        }
+        writeLatencies();
+    }
+
+    /**
+     * @param elapsedNs time the agent took for the move that was just played
+     */
+    private void recordLatency(long elapsedNs) {
+        final SearchStatistics search = agent.lastSearch();
+        latencies.record(ply - 1, search != null ? search.depth : 0, elapsedNs);
+    }
+
+    private void writeLatencies() {
+        final LatencyHistogram all = latencies.all();
+        System.out.printf("move times: p50 %d ms, p99 %d ms, max %d ms%n", all.valueAtPercentile(50) / 1_000_000,
+                all.valueAtPercentile(99) / 1_000_000, all.max() / 1_000_000);
+        try {
+            latencies.write(latencyFile);
+            System.out.printf("move times written to %s%n", latencyFile);
+        } catch (IOException ex) {
+            System.err.printf("could not write move times: %s%n", ex.getMessage());
         }
     }
 
     private void setBoardStartPosition() {
+        setStartPosition(board);
+    }
+
+    /**
+     * sets up the start position of a game on board, for both board sizes.
+     */
+    static void setStartPosition(Board board) {
         for (int y = 1; y <= board.height; y++) {
             for (int x = 1; x <= board.width; x++) {
                 board.set(x, y, Field.EMPTY);
@@ -116,34 +192,70 @@ public class ConnectThree {
      * @return true if move was valid and has been executed
      */
     private boolean processMove(PlayerColor player, String cmd) {
+        if (!applyMove(board, player, cmd)) {
+            return false;
+        }
+        ply++;
+        System.out.printf("🠯 %s: %s%n", player, cmd);
+        return true;
+    }
+
+    /**
+     * the rules of a move: player moves one of its stones to an empty neighbouring field.
+     * If the return value is false, the board object has not been modified.
+     * @param cmd a move in the syntax "<x><y><dir>"
+     * @return true if move was valid and has been executed
+     */
+    static boolean applyMove(Board board, PlayerColor player, String cmd) {
+        if (cmd == null || cmd.length() != 3) {
+            return false;
+        }
         int x = cmd.charAt(0) - '0';
         int y = cmd.charAt(1) - '0';
         char direction = cmd.charAt(2);
-        if (board.get(x, y) != player.getField()) {
+        if (!board.has(x, y) || board.get(x, y) != player.getField()) {
             return false;
         }
-        int targetX = x;
-        int targetY = y;
-        switch (direction) {
-            case 'N':
-                targetY--;
-                break;
-            case 'E':
-                targetX++;
-                break;
-            case 'S':
-                targetY++;
-                break;
-            case 'W':
-                targetX--;
-                break;
+        final int[] target = target(x, y, direction);
+        if (target == null) {
+            return false;
         }
-        if (board.has(targetX, targetY)) {
+        final int targetX = target[0];
+        final int targetY = target[1];
+        if (board.has(targetX, targetY) && board.get(targetX, targetY) == Field.EMPTY) {
             board.set(x, y, Field.EMPTY);
             board.set(targetX, targetY, player.getField());
-            System.out.printf("🠯 %s: %s%n", player, cmd);
             return true;
         }
         return false;
     }
+
+    /**
+     * @param cmd a move that has just been executed by applyMove
+     * @return true if the move made three in a row. Only checks the runs through the field the stone moved to,
+     *         see Board#isTerminal(int, int).
+     */
+    static boolean isWinningMove(Board board, String cmd) {
+        final int[] target = target(cmd.charAt(0) - '0', cmd.charAt(1) - '0', cmd.charAt(2));
+        return board.isTerminal(target[0], target[1]);
+    }
+
+    /**
+     * @return the field a stone on x,y moves to in the given direction (which may be off the board),
+     *         null if the direction is none of N, E, S, W
+     */
+    private static int[] target(int x, int y, char direction) {
+        switch (direction) {
+            case 'N':
+                return new int[] {x, y - 1};
+            case 'E':
+                return new int[] {x + 1, y};
+            case 'S':
+                return new int[] {x, y + 1};
+            case 'W':
+                return new int[] {x - 1, y};
+            default:
+                return null;
+        }
+    }
 }
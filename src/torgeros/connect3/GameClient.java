@@ -1,122 +1,445 @@
 package torgeros.connect3;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.BufferedWriter;
-import java.net.Socket;
-import java.net.UnknownHostException;
-
-import torgeros.connect3.Board;
-import torgeros.connect3.ConnectThree.PlayerColor;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * connection to the game server, see GameServer for the protocol.
+ *
+ * Every call waits at most until its deadline, and everything that ends the game early is thrown as a Failure,
+ * so the game can end cleanly instead of halting. makeMove only sends the move: the confirmation of the server
+ * is read by confirmMove, so the agent can start working (e.g. ponder) while the move is on its way.
+ *
+ * With reconnect set, a lost connection is opened again and the game is resumed: the client joins again,
+ * gets the moves of the game so far (see GameServer) and sends its last move again if the server did not get it.
+ * Not thread-safe.
+ */
 public class GameClient {
+    public static final String DEFAULT_HOSTNAME = "156trlinux-1.ece.mcgill.ca";
+    public static final int DEFAULT_PORT = 12345;
+
+    /**
+     * names of the options of set.
+     */
+    public static final List<String> OPTIONS = Arrays.asList("host", "port", "read-timeout", "join-timeout", "reconnect");
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int WRITE_TIMEOUT_MS = 10000;
+    private static final int RECONNECT_DELAY_MS = 500;
+    /**
+     * a line longer than this is not part of the protocol.
+     */
+    private static final int MAX_LINE = 256;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * why a game ended early.
+     */
+    public enum Reason {
+        /**
+         * the server could not be reached.
+         */
+        UNREACHABLE,
+        /**
+         * the connection was lost and could not be resumed.
+         */
+        DISCONNECTED,
+        /**
+         * the server did not answer in time.
+         */
+        DEADLINE,
+        /**
+         * the server ended the game, e.g. after a timeout or an invalid move. The message is the line of the server.
+         */
+        GAME_OVER,
+        /**
+         * the server sent something that is not part of the protocol at this point.
+         */
+        UNEXPECTED
+    }
+
+    /**
+     * the game cannot go on, see Reason.
+     */
+    public static class Failure extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public final Reason reason;
+
+        Failure(final Reason reason, final String message) {
+            super(message);
+            this.reason = reason;
+        }
+    }
+
     private final String gamename;
     private final String color;
+    String hostname;
+    int port;
+    /**
+     * how long to wait for the confirmation of an own move and for the move of the opponent.
+     */
+    int readTimeoutMs = 30000;
+    /**
+     * how long to wait for the opponent to join, 0: no limit.
+     */
+    int joinTimeoutMs = 0;
+    /**
+     * how often a lost connection is opened again during a game.
+     */
+    int reconnects = 0;
 
-    private Socket socket;
-    private InputStream istream;
-    private BufferedReader reader;
-    private OutputStream ostream;
-    private BufferedWriter writer;
-
-    private final String HOSTNAME = "156trlinux-1.ece.mcgill.ca";
-    private final int PORT = 12345;
+    private SocketChannel channel;
+    private Selector selector;
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+    private final StringBuilder line = new StringBuilder();
+    /**
+     * lines received from the server but not used yet.
+     */
+    private final ArrayDeque<String> lines = new ArrayDeque<String>();
+    /**
+     * moves of both players the game has got from the server.
+     */
+    private int movesReceived;
+    /**
+     * own move that is not confirmed yet, or null.
+     */
+    private String pendingMove;
+    private long pendingSince;
+    private int reconnectsLeft;
 
     /**
-     * initializes the network connection, does not start the game yet.
+     * client for the course server, does not connect yet, see connect.
      * @param gamename for matchmaking
      * @param color as specified by the server documentation
      */
     public GameClient(String gamename, String color) {
+        this(gamename, color, DEFAULT_HOSTNAME, DEFAULT_PORT);
+    }
+
+    /**
+     * does not connect yet, see connect.
+     * @param hostname,port of the game server, e.g. a local GameServer
+     */
+    public GameClient(String gamename, String color, String hostname, int port) {
         this.gamename = gamename;
         this.color = color;
-        
+        this.hostname = hostname;
+        this.port = port;
+    }
+
+    /**
+     * sets one option from its command line name and value, see OPTIONS.
+     * @throws IllegalArgumentException for an unknown option or an invalid value
+     */
+    public void set(final String name, final String value) {
         try {
-            socket = new Socket(HOSTNAME, PORT);
-            istream = socket.getInputStream();
-            reader = new BufferedReader(new InputStreamReader(istream));
-            ostream = socket.getOutputStream();
-            writer = new BufferedWriter(new OutputStreamWriter(ostream));
-        } catch (UnknownHostException ex) {
-            System.err.println("hostname is wrong, halting");
-            while (true);
-        } catch (IOException ex) {
-            System.err.println("could not connect, halting");
-            while (true);
+            switch (name) {
+                case "host":
+                    if (value.isEmpty()) {
+                        throw new IllegalArgumentException(String.format("option %s cannot be empty", name));
+                    }
+                    hostname = value;
+                    return;
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "read-timeout":
+                    readTimeoutMs = Integer.parseInt(value);
+                    break;
+                case "join-timeout":
+                    joinTimeoutMs = Integer.parseInt(value);
+                    break;
+                case "reconnect":
+                    reconnects = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("unknown client option \"%s\"", name));
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("option %s needs a number, not \"%s\"", name, value));
+        }
+        if (port < 1 || port > 65535 || readTimeoutMs < 1 || joinTimeoutMs < 0 || reconnects < 0) {
+            throw new IllegalArgumentException(String.format("option %s cannot be %s", name, value));
         }
     }
 
     /**
-     * start game, wait for server to accept the game.
-     * will not return until two players are connected with the same gamestring.
+     * connects and starts the game, returns once the server has matched both players with the same gamestring.
      */
-    public void connect() {
-        String gamestring = gamename + " " + color;
-        writeLine(gamestring);
-        if (!readAndVerify(gamestring)) {
-            System.err.println("DID NOT RETURN CORRECT GAMESTRING! HALTING");
-            while(true);
+    public void connect() throws Failure {
+        reconnectsLeft = reconnects;
+        movesReceived = 0;
+        pendingMove = null;
+        final String gamestring = gamename + " " + color;
+        try {
+            open();
+            send(gamestring);
+            final String answer = receive(deadline(joinTimeoutMs), "waiting for the opponent to join");
+            if (!gamestring.equals(answer)) {
+                close();
+                throw new Failure(Reason.UNEXPECTED, String.format("server answered \"%s\" to \"%s\"", answer, gamestring));
+            }
+        } catch (IOException ex) {
+            close();
+            throw new Failure(Reason.UNREACHABLE, String.format("could not join at %s:%d: %s", hostname, port, ex.getMessage()));
         }
         System.out.println("connected to game server");
     }
 
     /**
-     * publish one move to the server. has to be valid!
-     * wait for server to accept the move
+     * sends one move to the server, it has to be valid. Does not wait for the server, see confirmMove.
+     */
+    public void makeMove(String move) throws Failure {
+        pendingMove = move;
+        pendingSince = System.nanoTime();
+        if (channel == null) {
+            // the next read resumes the game and sends the move
+            return;
+        }
+        try {
+            send(move);
+        } catch (IOException ex) {
+            close();
+        }
+    }
+
+    /**
+     * waits until the server has confirmed the move of the last makeMove.
+     * @return round trip time in nanoseconds, from sending the move until the confirmation was read
      */
-    public void makeMove(String move) {
-        writeLine(move);
-        readAndVerify(move);
+    public long confirmMove() throws Failure {
+        if (pendingMove == null) {
+            throw new IllegalStateException("there is no move to confirm");
+        }
+        final String answer = readLine("waiting for the confirmation of " + pendingMove);
+        if (!answer.equals(pendingMove)) {
+            throw new Failure(Reason.UNEXPECTED, String.format("server answered \"%s\" to move %s", answer, pendingMove));
+        }
+        movesReceived++;
+        pendingMove = null;
+        return System.nanoTime() - pendingSince;
     }
 
     /**
-     * wait until the server sends the opponent's move
+     * waits until the server sends the opponent's move. Confirms the own move first, if that has not been done.
      * @return opponent's move
      */
-    public String getOpponentMove() {
-        // game is considered to be connected
+    public String getOpponentMove() throws Failure {
+        if (pendingMove != null) {
+            confirmMove();
+        }
+        final String move = readLine("waiting for the opponent's move");
+        movesReceived++;
+        return move;
+    }
+
+    /**
+     * closes the connection, if it is open.
+     */
+    public void close() {
         try {
-            String input = reader.readLine();
-            if (input == null) {
-                System.out.println("received empty line from server, halting.");
-                while(true);
+            if (channel != null) {
+                channel.close();
             }
-            if (input.startsWith("Timeout")) {
-                System.err.println("Server timeout trigerred, halting. This can be considered a win.");
-                while (true);
+            if (selector != null) {
+                selector.close();
             }
-            return input;
         } catch (IOException ex) {
-            ex.printStackTrace();
-            System.err.println("halting");
-            while (true);
+            // nothing left to do with this connection
         }
+        channel = null;
+        selector = null;
+        in.clear();
+        line.setLength(0);
     }
 
-    private void writeLine(String line) {
-        try {
-            writer.write(line + "\n");
-            writer.flush();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            System.err.println("halting");
-            while (true);
+    /**
+     * @return the next line of the game, resumes the game if the connection was lost.
+     * @throws Failure GAME_OVER if the server ended the game
+     */
+    private String readLine(final String waitingFor) throws Failure {
+        final long deadline = deadline(readTimeoutMs);
+        while (true) {
+            if (lines.isEmpty() && channel == null) {
+                resume();
+            }
+            try {
+                final String answer = receive(deadline, waitingFor);
+                if (answer.startsWith("Timeout") || answer.startsWith("Invalid")) {
+                    close();
+                    throw new Failure(Reason.GAME_OVER, answer);
+                }
+                return answer;
+            } catch (IOException ex) {
+                System.err.printf("lost the connection to the server: %s%n", ex.getMessage());
+                close();
+            }
         }
     }
 
-    private boolean readAndVerify(String correct) {
-        try {
-            String iLine = reader.readLine();
-            //System.out.println(iLine);
-            return correct.equals(iLine);
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            System.err.println("halting");
-            while (true);
+    /**
+     * opens the connection again and joins the game again. The server sends the moves of the game so far,
+     * those the game has not got yet are read next. The pending move is sent again if the server does not know it.
+     */
+    private void resume() throws Failure {
+        final String gamestring = gamename + " " + color;
+        while (reconnectsLeft > 0) {
+            reconnectsLeft--;
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            System.out.printf("reconnecting, %d attempts left after this one%n", reconnectsLeft);
+            try {
+                open();
+                send(gamestring);
+                final long deadline = deadline(readTimeoutMs);
+                final String answer = receive(deadline, "rejoining the game");
+                final String resume = receive(deadline, "rejoining the game");
+                final int moves;
+                try {
+                    moves = resume.startsWith("Resume ") ? Integer.parseInt(resume.substring("Resume ".length())) : -1;
+                } catch (NumberFormatException ex) {
+                    throw new Failure(Reason.UNEXPECTED, String.format("server answered \"%s\" to a rejoin", resume));
+                }
+                if (!gamestring.equals(answer) || moves < 0) {
+                    throw new Failure(Reason.UNEXPECTED, String.format("server answered \"%s\", \"%s\" to a rejoin", answer, resume));
+                }
+                // resume is only called once all received lines are used
+                final ArrayList<String> missed = new ArrayList<String>();
+                for (int i = 0; i < moves; i++) {
+                    final String move = receive(deadline, "rejoining the game");
+                    if (i >= movesReceived) {
+                        missed.add(move);
+                    }
+                }
+                // before any line the server sent after the moves so far
+                for (int i = missed.size() - 1; i >= 0; i--) {
+                    lines.addFirst(missed.get(i));
+                }
+                if (pendingMove != null && moves == movesReceived) {
+                    send(pendingMove);
+                }
+                System.out.println("resumed the game");
+                return;
+            } catch (IOException ex) {
+                System.err.printf("could not reconnect: %s%n", ex.getMessage());
+                close();
+            } catch (Failure ex) {
+                close();
+                throw ex;
+            }
+        }
+        throw new Failure(Reason.DISCONNECTED, "lost the connection to the server");
+    }
+
+    private void open() throws IOException, Failure {
+        close();
+        final InetSocketAddress address = new InetSocketAddress(hostname, port);
+        if (address.isUnresolved()) {
+            throw new Failure(Reason.UNREACHABLE, String.format("unknown host %s", hostname));
+        }
+        selector = Selector.open();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        final long deadline = deadline(CONNECT_TIMEOUT_MS);
+        if (!channel.connect(address)) {
+            while (!channel.finishConnect()) {
+                if (!await(SelectionKey.OP_CONNECT, deadline)) {
+                    throw new IOException(String.format("no connection after %d ms", CONNECT_TIMEOUT_MS));
+                }
+            }
         }
     }
+
+    /**
+     * @return the next line from the server, before the deadline
+     * @throws IOException if the connection is lost
+     */
+    private String receive(final long deadline, final String waitingFor) throws IOException, Failure {
+        while (lines.isEmpty()) {
+            if (channel == null) {
+                throw new IOException("not connected");
+            }
+            final int read = channel.read(in);
+            if (read < 0) {
+                throw new IOException("closed by the server");
+            }
+            if (read == 0 && !await(SelectionKey.OP_READ, deadline)) {
+                throw new Failure(Reason.DEADLINE, String.format("no answer from the server while %s", waitingFor));
+            }
+            in.flip();
+            while (in.hasRemaining()) {
+                final char c = (char) in.get();
+                if (c == '\n') {
+                    lines.add(line.toString().trim());
+                    line.setLength(0);
+                } else if (line.length() < MAX_LINE) {
+                    line.append(c);
+                } else {
+                    throw new Failure(Reason.UNEXPECTED, "server sent a line that is too long");
+                }
+            }
+            in.clear();
+        }
+        return lines.poll();
+    }
+
+    private void send(final String text) throws IOException, Failure {
+        final ByteBuffer out = ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.US_ASCII));
+        final long deadline = deadline(WRITE_TIMEOUT_MS);
+        while (true) {
+            channel.write(out);
+            if (!out.hasRemaining()) {
+                return;
+            }
+            if (!await(SelectionKey.OP_WRITE, deadline)) {
+                throw new Failure(Reason.DEADLINE, String.format("could not send \"%s\" in time", text));
+            }
+        }
+    }
+
+    /**
+     * waits until the channel is ready for ops, or until the deadline.
+     * @return false if the deadline has passed
+     */
+    private boolean await(final int ops, final long deadline) throws IOException {
+        final SelectionKey key = channel.keyFor(selector);
+        if (key == null) {
+            channel.register(selector, ops);
+        } else {
+            key.interestOps(ops);
+        }
+        if (deadline == NO_DEADLINE) {
+            selector.select();
+        } else {
+            final long remainingMs = (deadline - System.nanoTime() + 999_999) / 1_000_000;
+            if (remainingMs <= 0) {
+                return false;
+            }
+            selector.select(remainingMs);
+        }
+        selector.selectedKeys().clear();
+        return true;
+    }
+
+    /**
+     * @param timeoutMs 0: no deadline
+     */
+    private static long deadline(final int timeoutMs) {
+        return timeoutMs > 0 ? System.nanoTime() + timeoutMs * 1_000_000L : NO_DEADLINE;
+    }
 }
@@ -0,0 +1,136 @@
+package torgeros.connect3;
+
+import java.util.ArrayList;
+
+import torgeros.connect3.ConnectThree.PlayerColor;
+import torgeros.connect3.agent.Agent;
+import torgeros.connect3.agent.Ai;
+import torgeros.connect3.agent.AiOptions;
+import torgeros.connect3.agent.MctsAi;
+import torgeros.connect3.agent.SearchPool;
+
+/**
+ * plays several server games in one process, so JVM startup and JIT warm-up are paid once instead of once per game.
+ *
+ * Every game gets its own thread, its own GameClient connection and its own agent with its own time budget
+ * (see TimeManager). All searches of all agents run on one shared pool of search workers (see SearchPool),
+ * so pool bounds the number of searching threads, whatever the number of games and threads per agent.
+ * A move that is due is searched before any helper, and a helper that has not started when its move is due
+ * is skipped, so a game never waits for the helpers of another one. Pondering gives way to a move that is due.
+ * A move that waits for a worker loses that time, so pool should not be much lower than the number of games
+ * that can be to move at the same time.
+ * The solution of the 5x4 board is opened once and shared by all agents (see Ai).
+ *
+ * Every agent has a transposition table (tt-mb) or tree (tree-mb) of its own, so the heap has to hold
+ * that many MB once per game. With many games, a smaller tt-mb or tree-mb keeps that in bounds.
+ *
+ * Games are played on platform threads: they spend most of their time waiting for the server,
+ * but there are only as many as given on the command line, and Java 17 has no virtual threads.
+ */
+public class GameHost {
+    final String engine;
+    final AiOptions options = new AiOptions();
+    final ArrayList<String> gameNames = new ArrayList<String>();
+    final ArrayList<PlayerColor> colors = new ArrayList<PlayerColor>();
+    boolean largeGrid = false;
+    /**
+     * GameClient options of all games, name and value.
+     */
+    final ArrayList<String[]> clientOptions = new ArrayList<String[]>();
+    int poolThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param engine "ai" or "mcts"
+     */
+    public GameHost(final String engine) {
+        if (!engine.equals("ai") && !engine.equals("mcts")) {
+            throw new IllegalArgumentException(String.format("unknown engine \"%s\", use ai or mcts", engine));
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * adds a game from its command line form "<gamename>:<w|b>".
+     * @throws IllegalArgumentException if the game is not in that form
+     */
+    public void addGame(final String game) {
+        final int colon = game.lastIndexOf(':');
+        final String color = game.substring(colon + 1);
+        if (colon < 1 || (!color.equals("w") && !color.equals("b"))) {
+            throw new IllegalArgumentException(String.format("game \"%s\" is not <gamename>:<w|b>", game));
+        }
+        gameNames.add(game.substring(0, colon));
+        colors.add(color.equals("w") ? PlayerColor.WHITE_PLAYER : PlayerColor.BLACK_PLAYER);
+    }
+
+    /**
+     * sets one option from its command line name and value: pool, a GameClient option or an AiOptions option.
+     * @throws IllegalArgumentException for unknown names and invalid values
+     */
+    public void set(final String name, final String value) {
+        if (name.equals("pool")) {
+            try {
+                poolThreads = Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(String.format("option %s needs a number, got \"%s\"", name, value));
+            }
+            if (poolThreads < 1) {
+                throw new IllegalArgumentException(String.format("option %s has to be at least 1", name));
+            }
+        } else if (GameClient.OPTIONS.contains(name)) {
+            // checks the value
+            new GameClient("", "").set(name, value);
+            clientOptions.add(new String[] {name, value});
+        } else {
+            options.set(name, value);
+        }
+    }
+
+    /**
+     * plays all games at the same time and returns when all of them are over.
+     */
+    public void run() {
+        final SearchPool pool = new SearchPool(poolThreads, "search-worker");
+        options.pool = pool;
+        final int tableMb = engine.equals("ai") ? options.transpositionTableMb : options.treeMb;
+        System.out.printf("hosting %d games with %s, %d search workers, %d MB of %s per game (%d MB in total).%n",
+                gameNames.size(), engine, poolThreads, tableMb, engine.equals("ai") ? "table" : "tree",
+                (long) tableMb * gameNames.size());
+
+        final long start = System.nanoTime();
+        final ArrayList<Thread> games = new ArrayList<Thread>();
+        final int[] failed = new int[1];
+        for (int i = 0; i < gameNames.size(); i++) {
+            final String name = gameNames.get(i);
+            final PlayerColor color = colors.get(i);
+            final Thread game = new Thread(() -> {
+                try {
+                    final Agent agent = engine.equals("ai") ? new Ai(color, options) : new MctsAi(color, options);
+                    final GameClient client = new GameClient(name, color.getClientName());
+                    for (String[] option : clientOptions) {
+                        client.set(option[0], option[1]);
+                    }
+                    new ConnectThree(name, color, agent, largeGrid, client).play();
+                } catch (RuntimeException ex) {
+                    System.out.printf("game %s (%s) failed: %s%n", name, color.getClientName(), ex);
+                    synchronized (failed) {
+                        failed[0]++;
+                    }
+                }
+            }, "game-" + name + "-" + color.getClientName());
+            games.add(game);
+            game.start();
+        }
+        try {
+            for (Thread game : games) {
+                game.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("%d games over after %d s, %d failed.%n",
+                games.size(), (System.nanoTime() - start) / 1_000_000_000L, failed[0]);
+    }
+}
@@ -0,0 +1,420 @@
+package torgeros.connect3;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import torgeros.connect3.ConnectThree.PlayerColor;
+
+/**
+ * local stand-in for the game server, so games and load tests can run without the course server.
+ * Speaks the line protocol of GameClient:
+ *
+ * 1. a client sends "<gamename> <white|black>". Once both colors of a game name are connected,
+ *    both get their line sent back and the game starts.
+ * 2. the player to move (white first) sends a move "<x><y><dir>". A valid move is sent to both players:
+ *    the mover reads it as confirmation, the opponent as the opponent's move.
+ * 3. a player who does not move within the time limit loses, both get "Timeout: <color> did not move in time".
+ *    An invalid move or a move out of turn loses as well, both get "Invalid move ...".
+ * 4. after three in a row, a timeout or an invalid move the game is over and both connections are closed.
+ * 5. a player whose connection is lost during the game may join again with the same line, the clock keeps running.
+ *    It gets its line sent back, then "Resume <n>" and the n moves of the game so far, one per line.
+ *    If the server still holds the old connection, e.g. a half-open one, that one is closed in favor of the new one.
+ *    The game ends right away only when both players are gone.
+ *
+ * All games run on one thread with one Selector, a game costs two connections with small buffers,
+ * so thousands of games can run at the same time.
+ */
+public class GameServer {
+    /**
+     * a line longer than this is not part of the protocol, the connection is closed.
+     */
+    private static final int MAX_LINE = 256;
+
+    int port = GameClient.DEFAULT_PORT;
+    int moveTimeoutMs = 10000;
+    boolean largeGrid = false;
+
+    private Selector selector;
+    /**
+     * games by name, from the first connection until the game is over.
+     */
+    private final HashMap<String, Game> games = new HashMap<String, Game>();
+    /**
+     * move deadlines of all running games, earliest first. An entry is stale once its game moved on.
+     */
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<Deadline>();
+    private long gamesFinished;
+    private long movesPlayed;
+
+    private class Game {
+        final String name;
+        final Board board = largeGrid ? new Board(7, 6) : new Board(5, 4);
+        Connection white;
+        Connection black;
+        PlayerColor toMove = PlayerColor.WHITE_PLAYER;
+        final ArrayList<String> moves = new ArrayList<String>();
+        long deadline;
+        boolean started;
+        boolean over;
+
+        Game(final String name) {
+            this.name = name;
+            ConnectThree.setStartPosition(board);
+        }
+
+        Connection get(final PlayerColor color) {
+            return color == PlayerColor.WHITE_PLAYER ? white : black;
+        }
+
+        void set(final PlayerColor color, final Connection connection) {
+            if (color == PlayerColor.WHITE_PLAYER) {
+                white = connection;
+            } else {
+                black = connection;
+            }
+        }
+
+        /**
+         * sends the line to both players, unless one is disconnected.
+         */
+        void send(final String line) {
+            if (white != null) {
+                white.send(line);
+            }
+            if (black != null) {
+                black.send(line);
+            }
+        }
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        final long at;
+        final Game game;
+
+        Deadline(final long at, final Game game) {
+            this.at = at;
+            this.game = game;
+        }
+
+        @Override
+        public int compareTo(final Deadline other) {
+            return Long.compare(at, other.at);
+        }
+    }
+
+    private class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        ByteBuffer out = ByteBuffer.allocate(64);
+        final StringBuilder line = new StringBuilder();
+        Game game;
+        PlayerColor color;
+        /**
+         * close as soon as everything is sent.
+         */
+        boolean closing;
+
+        Connection(final SocketChannel channel) throws IOException {
+            this.channel = channel;
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        void send(final String text) {
+            final byte[] bytes = (text + "\n").getBytes(StandardCharsets.US_ASCII);
+            if (out.remaining() < bytes.length) {
+                final ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + bytes.length));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+            out.put(bytes);
+            flush();
+        }
+
+        void flush() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            if (out.position() > 0) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closing) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * closes the connection right away. A game that has not started yet ends, a running game waits for the
+         * player to join again, unless both players are gone.
+         */
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // nothing left to do with this connection
+            }
+            if (game == null || game.over) {
+                return;
+            }
+            if (!game.started) {
+                endGame(game, null);
+                return;
+            }
+            if (game.get(color) == this) {
+                game.set(color, null);
+            }
+            if (game.white == null && game.black == null) {
+                endGame(game, null);
+            }
+        }
+    }
+
+    /**
+     * sets one option from its command line name and value.
+     * @throws IllegalArgumentException for an unknown option or an invalid value
+     */
+    public void set(final String name, final String value) {
+        try {
+            switch (name) {
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "timeout":
+                    moveTimeoutMs = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("unknown server option \"%s\"", name));
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("option %s needs a number, not \"%s\"", name, value));
+        }
+        if (port < 1 || port > 65535 || moveTimeoutMs < 1) {
+            throw new IllegalArgumentException(String.format("option %s cannot be %s", name, value));
+        }
+    }
+
+    /**
+     * serves games until the process is stopped.
+     */
+    public void run() throws IOException {
+        selector = Selector.open();
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        System.out.printf("serving %s games on port %d, %d ms per move.%n", largeGrid ? "7x6" : "5x4", port, moveTimeoutMs);
+
+        while (true) {
+            final Deadline next = deadlines.peek();
+            if (next == null) {
+                selector.select();
+            } else {
+                // select(0) would wait forever
+                selector.select(Math.max(1, (next.at - System.nanoTime()) / 1_000_000 + 1));
+            }
+            final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                final SelectionKey key = selected.next();
+                selected.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept(server);
+                    continue;
+                }
+                final Connection connection = (Connection) key.attachment();
+                if (key.isReadable()) {
+                    read(connection);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            }
+            expireDeadlines();
+        }
+    }
+
+    private void accept(final ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            new Connection(channel);
+        }
+    }
+
+    private void read(final Connection connection) {
+        int read;
+        try {
+            read = connection.channel.read(connection.in);
+        } catch (IOException ex) {
+            read = -1;
+        }
+        if (read < 0) {
+            connection.close();
+            return;
+        }
+        connection.in.flip();
+        while (connection.in.hasRemaining() && connection.channel.isOpen()) {
+            final char c = (char) connection.in.get();
+            if (c == '\n') {
+                final String line = connection.line.toString().trim();
+                connection.line.setLength(0);
+                handleLine(connection, line);
+            } else if (connection.line.length() < MAX_LINE) {
+                connection.line.append(c);
+            } else {
+                connection.close();
+            }
+        }
+        connection.in.clear();
+    }
+
+    private void handleLine(final Connection connection, final String line) {
+        if (connection.closing) {
+            return;
+        }
+        if (connection.game == null) {
+            join(connection, line);
+            return;
+        }
+        final Game game = connection.game;
+        if (!game.started || game.over) {
+            return;
+        }
+        if (connection.color != game.toMove) {
+            game.send(String.format("Invalid move %s: %s is not to move", line, connection.color.getClientName()));
+            endGame(game, game.toMove);
+            return;
+        }
+        if (!ConnectThree.applyMove(game.board, connection.color, line)) {
+            game.send(String.format("Invalid move %s by %s", line, connection.color.getClientName()));
+            endGame(game, other(connection.color));
+            return;
+        }
+        movesPlayed++;
+        game.moves.add(line);
+        game.send(line);
+        if (ConnectThree.isWinningMove(game.board, line)) {
+            endGame(game, connection.color);
+            return;
+        }
+        game.toMove = other(connection.color);
+        startClock(game);
+    }
+
+    /**
+     * handles the first line of a connection, "<gamename> <white|black>".
+     */
+    private void join(final Connection connection, final String line) {
+        final String[] parts = line.split(" ");
+        PlayerColor color = null;
+        for (PlayerColor c : PlayerColor.values()) {
+            if (parts.length == 2 && c.getClientName().equals(parts[1])) {
+                color = c;
+            }
+        }
+        if (color == null) {
+            connection.closing = true;
+            connection.send("Expected \"<gamename> <white|black>\"");
+            return;
+        }
+        final Game game = games.computeIfAbsent(parts[0], Game::new);
+        final Connection previous = game.get(color);
+        if (previous != null && !game.started) {
+            connection.closing = true;
+            connection.send(String.format("Color %s of game %s is taken", parts[1], parts[0]));
+            return;
+        }
+        connection.game = game;
+        connection.color = color;
+        game.set(color, connection);
+        if (previous != null) {
+            // a player only joins a running game again after losing its connection. If the old one is still here,
+            // the server has not noticed yet (half-open TCP connection): it is dropped, the new one takes over.
+            // The old one is no longer in the game, so closing it does not end the game.
+            System.out.printf("game %s: %s joined again, dropping its old connection.%n",
+                    game.name, color.getClientName());
+            previous.close();
+        }
+        if (game.started) {
+            connection.send(game.name + " " + color.getClientName());
+            connection.send("Resume " + game.moves.size());
+            for (String move : game.moves) {
+                connection.send(move);
+            }
+            return;
+        }
+        if (game.white != null && game.black != null) {
+            game.started = true;
+            game.white.send(game.name + " " + PlayerColor.WHITE_PLAYER.getClientName());
+            game.black.send(game.name + " " + PlayerColor.BLACK_PLAYER.getClientName());
+            startClock(game);
+        }
+    }
+
+    private void startClock(final Game game) {
+        game.deadline = System.nanoTime() + moveTimeoutMs * 1_000_000L;
+        deadlines.add(new Deadline(game.deadline, game));
+    }
+
+    private void expireDeadlines() {
+        final long now = System.nanoTime();
+        while (!deadlines.isEmpty() && deadlines.peek().at - now <= 0) {
+            final Deadline deadline = deadlines.poll();
+            final Game game = deadline.game;
+            if (game.over || game.deadline != deadline.at) {
+                continue;
+            }
+            game.send(String.format("Timeout: %s did not move in time", game.toMove.getClientName()));
+            endGame(game, other(game.toMove));
+        }
+    }
+
+    /**
+     * @param winner null if the game ended because the players disconnected
+     */
+    private void endGame(final Game game, final PlayerColor winner) {
+        game.over = true;
+        games.remove(game.name);
+        if (!game.started) {
+            // the only player left before the game started
+            return;
+        }
+        gamesFinished++;
+        for (Connection connection : new Connection[] {game.white, game.black}) {
+            if (connection != null && connection.channel.isOpen()) {
+                connection.closing = true;
+                connection.flush();
+            }
+        }
+        System.out.printf("game %s: %s. %d games, %d moves so far.%n", game.name,
+                winner == null ? "both players disconnected" : winner.getClientName() + " wins", gamesFinished, movesPlayed);
+    }
+
+    private static PlayerColor other(final PlayerColor color) {
+        return color == PlayerColor.WHITE_PLAYER ? PlayerColor.BLACK_PLAYER : PlayerColor.WHITE_PLAYER;
+    }
+}
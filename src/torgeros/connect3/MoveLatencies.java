@@ -0,0 +1,94 @@
+package torgeros.connect3;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import torgeros.connect3.agent.LatencyHistogram;
+
+/**
+ * time an agent took for getBestMove, per game phase and per search depth reached, see LatencyHistogram.
+ * A move that comes close to the time limit of the server forfeits the game, so the tail matters more than the mean.
+ * In server games also the round trip of each move, from sending it until the server confirmed it.
+ * Not thread-safe.
+ */
+class MoveLatencies {
+    /**
+     * the game phase of a move is given by the plies played before it: opening, middle game, late game.
+     */
+    static final String[] PHASES = {"opening", "middle", "late"};
+    static final int MIDDLE_GAME_PLY = 10;
+    static final int LATE_GAME_PLY = 30;
+
+    /**
+     * depths above this are recorded as this depth.
+     */
+    static final int MAX_DEPTH = 100;
+
+    private final String boardSize;
+    private final LatencyHistogram all = new LatencyHistogram();
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+    private final LatencyHistogram[] byPhase = new LatencyHistogram[PHASES.length];
+    /**
+     * created when a move reaches the depth for the first time.
+     */
+    private final LatencyHistogram[] byDepth = new LatencyHistogram[MAX_DEPTH + 1];
+
+    MoveLatencies(final int width, final int height) {
+        boardSize = width + "x" + height;
+        for (int i = 0; i < PHASES.length; i++) {
+            byPhase[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param ply number of moves of both players before this one
+     * @param depth depth reached by the search (see Agent#lastSearch), 0 if unknown
+     */
+    void record(final int ply, final int depth, final long elapsedNs) {
+        all.record(elapsedNs);
+        byPhase[ply < MIDDLE_GAME_PLY ? 0 : ply < LATE_GAME_PLY ? 1 : 2].record(elapsedNs);
+        final int d = Math.min(Math.max(depth, 0), MAX_DEPTH);
+        if (byDepth[d] == null) {
+            byDepth[d] = new LatencyHistogram();
+        }
+        byDepth[d].record(elapsedNs);
+    }
+
+    void recordRoundTrip(final long elapsedNs) {
+        roundTrips.record(elapsedNs);
+    }
+
+    LatencyHistogram all() {
+        return all;
+    }
+
+    /**
+     * writes p50, p99 and max of all moves, of every phase, of every depth and of the round trips
+     * (if there were any) as CSV, in nanoseconds:
+     * board,group,value,moves,p50_ns,p99_ns,max_ns
+     */
+    void write(final Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("board,group,value,moves,p50_ns,p99_ns,max_ns");
+            writeRow(out, "all", "", all);
+            for (int i = 0; i < PHASES.length; i++) {
+                writeRow(out, "phase", PHASES[i], byPhase[i]);
+            }
+            for (int d = 0; d <= MAX_DEPTH; d++) {
+                if (byDepth[d] != null) {
+                    writeRow(out, "depth", Integer.toString(d), byDepth[d]);
+                }
+            }
+            if (roundTrips.count() > 0) {
+                writeRow(out, "round-trip", "", roundTrips);
+            }
+        }
+    }
+
+    private void writeRow(final PrintWriter out, final String group, final String value, final LatencyHistogram histogram) {
+        out.printf("%s,%s,%s,%d,%d,%d,%d%n", boardSize, group, value, histogram.count(),
+                histogram.valueAtPercentile(50), histogram.valueAtPercentile(99), histogram.max());
+    }
+}
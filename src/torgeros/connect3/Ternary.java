@@ -1,10 +1,19 @@
 package torgeros.connect3;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
 import torgeros.connect3.ConnectThree.PlayerColor;
 import torgeros.connect3.agent.Agent;
 import torgeros.connect3.agent.Human;
 import torgeros.connect3.agent.Ai;
+import torgeros.connect3.agent.AiOptions;
 import torgeros.connect3.agent.EvaluatableAi;
+import torgeros.connect3.agent.MctsAi;
+import torgeros.connect3.agent.Perft;
+import torgeros.connect3.agent.RetrogradeSolver;
+import torgeros.connect3.agent.TerminalCheck;
 
 public class Ternary {
     /**
@@ -12,6 +21,30 @@ public class Ternary {
      * @param args to see valid args, run program withour parameters
      */
     public static void main(String[] args) {
+        if (args.length >= 1 && args[0].equals("solve")) {
+            solve(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("tournament")) {
+            tournament(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("perft")) {
+            perft(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("verify")) {
+            verify(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("server")) {
+            server(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("multi")) {
+            multi(args);
+            return;
+        }
         if (args.length < 3) {
             exitWrongArgs();
         }
@@ -25,29 +58,262 @@ public class Ternary {
             exitWrongArgs();
             return;
         }
+        boolean largegrid = false;
+        GameClient client = new GameClient(gamename, agentcolor.getClientName());
+        AiOptions options = new AiOptions();
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("large-grid")) {
+                largegrid = true;
+                System.out.println("activating large grid");
+            } else if (args[i].contains("=")) {
+                String[] option = args[i].split("=", 2);
+                try {
+                    if (GameClient.OPTIONS.contains(option[0])) {
+                        client.set(option[0], option[1]);
+                    } else {
+                        options.set(option[0], option[1]);
+                    }
+                } catch (IllegalArgumentException ex) {
+                    System.out.println(ex.getMessage());
+                    exitWrongArgs();
+                }
+            } else {
+                exitWrongArgs();
+            }
+        }
         Agent agent;
         if (args[2].equals("human")) {
             agent = new Human();
         } else if (args[2].equals("ai")) {
-            agent = new Ai(agentcolor);
+            agent = new Ai(agentcolor, options);
+        } else if (args[2].equals("mcts")) {
+            agent = new MctsAi(agentcolor, options);
         } else if (args[2].startsWith("eval")) {
-            agent = new EvaluatableAi(agentcolor);
+            agent = new EvaluatableAi(agentcolor, options);
         } else {
             exitWrongArgs();
             return;
         }
+        (new ConnectThree(gamename, agentcolor, agent, largegrid, client)).play();
+        System.out.println();
+    }
+
+    /**
+     * "solve [file] [threads]": solves the 5x4 game, see RetrogradeSolver.
+     */
+    private static void solve(String[] args) {
+        String file = args.length >= 2 ? args[1] : new AiOptions().solutionFile;
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length >= 3) {
+            try {
+                threads = Integer.parseInt(args[2]);
+            } catch (NumberFormatException ex) {
+                exitWrongArgs();
+            }
+        }
+        if (args.length > 3 || threads < 1) {
+            exitWrongArgs();
+        }
+        try {
+            RetrogradeSolver.solve(Paths.get(file), threads);
+        } catch (IOException ex) {
+            System.out.println("could not write the solution: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * "tournament <ai|mcts> <ai|mcts> [large-grid] [option=value ...]": plays both engines against each other, see Tournament.
+     */
+    private static void tournament(String[] args) {
+        if (args.length < 3) {
+            exitWrongArgs();
+        }
+        Tournament tournament = null;
+        try {
+            tournament = new Tournament(args[1], args[2]);
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].equals("large-grid")) {
+                    tournament.largeGrid = true;
+                } else if (args[i].contains("=")) {
+                    String[] option = args[i].split("=", 2);
+                    tournament.set(option[0], option[1]);
+                } else {
+                    exitWrongArgs();
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            exitWrongArgs();
+        }
+        tournament.run();
+    }
+
+    /**
+     * "perft <depth> [large-grid] [threads=<n>] [move ...]": counts the move sequences of the given length
+     * from the start position, or from the position after the given moves (server syntax, white moves first).
+     */
+    private static void perft(String[] args) {
+        if (args.length < 2) {
+            exitWrongArgs();
+        }
+        int depth = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
         boolean largegrid = false;
-        if (args.length > 3 && args[3].equals("large-grid")) {
-            largegrid = true;
-            System.out.println("activating large grid");
+        ArrayList<String> moves = new ArrayList<String>();
+        try {
+            depth = Integer.parseInt(args[1]);
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("large-grid")) {
+                    largegrid = true;
+                } else if (args[i].startsWith("threads=")) {
+                    threads = Integer.parseInt(args[i].substring("threads=".length()));
+                } else {
+                    moves.add(args[i]);
+                }
+            }
+        } catch (NumberFormatException ex) {
+            exitWrongArgs();
         }
-        (new ConnectThree(gamename, agentcolor, agent, largegrid)).play();
-        System.out.println();
+        if (depth < 1 || threads < 1) {
+            exitWrongArgs();
+        }
+        Board board = largegrid ? new Board(7, 6) : new Board(5, 4);
+        ConnectThree.setStartPosition(board);
+        PlayerColor toMove = PlayerColor.WHITE_PLAYER;
+        for (String move : moves) {
+            if (!ConnectThree.applyMove(board, toMove, move)) {
+                System.out.printf("move %s of %s is not valid.%n", move, toMove.getClientName());
+                System.exit(1);
+            }
+            toMove = toMove == PlayerColor.WHITE_PLAYER ? PlayerColor.BLACK_PLAYER : PlayerColor.WHITE_PLAYER;
+        }
+        board.print();
+        Perft.run(board, toMove, depth, threads);
+    }
+
+    /**
+     * "verify [games] [seed]": checks the win detection of the last move against the full scans
+     * in random games on both board sizes, see TerminalCheck. Exits with 1 if they disagree.
+     */
+    private static void verify(String[] args) {
+        int games = 10000;
+        long seed = 1;
+        try {
+            if (args.length >= 2) {
+                games = Integer.parseInt(args[1]);
+            }
+            if (args.length >= 3) {
+                seed = Long.parseLong(args[2]);
+            }
+        } catch (NumberFormatException ex) {
+            exitWrongArgs();
+        }
+        if (args.length > 3 || games < 1) {
+            exitWrongArgs();
+        }
+        long mismatches = 0;
+        for (Board board : new Board[] {new Board(5, 4), new Board(7, 6)}) {
+            ConnectThree.setStartPosition(board);
+            mismatches += TerminalCheck.run(board, games, seed);
+        }
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * "server [large-grid] [port=<n>] [timeout=<ms>]": runs a local game server, see GameServer.
+     */
+    private static void server(String[] args) {
+        GameServer server = new GameServer();
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("large-grid")) {
+                    server.largeGrid = true;
+                } else if (args[i].contains("=")) {
+                    String[] option = args[i].split("=", 2);
+                    server.set(option[0], option[1]);
+                } else {
+                    exitWrongArgs();
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            exitWrongArgs();
+        }
+        try {
+            server.run();
+        } catch (IOException ex) {
+            System.out.println("server failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * "multi <ai|mcts> <gamename>:<w|b> ... [large-grid] [pool=<n>] [option=value ...]":
+     * plays several server games in this process, see GameHost.
+     */
+    private static void multi(String[] args) {
+        if (args.length < 3) {
+            exitWrongArgs();
+        }
+        GameHost host = null;
+        try {
+            host = new GameHost(args[1]);
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("large-grid")) {
+                    host.largeGrid = true;
+                } else if (args[i].contains("=")) {
+                    String[] option = args[i].split("=", 2);
+                    host.set(option[0], option[1]);
+                } else {
+                    host.addGame(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            exitWrongArgs();
+        }
+        if (host.gameNames.isEmpty()) {
+            exitWrongArgs();
+        }
+        host.run();
     }
 
     private static void exitWrongArgs() {
         System.out.println("Command line arguments are not valid.");
-        System.out.println("Start the program with \"Ternary <gamename> <b|w> <human|ai|eval> [large-grid]\"");
+        System.out.println("Start the program with \"Ternary <gamename> <b|w> <human|ai|mcts|eval> [large-grid] [host=<server>] [port=<n>] [option=value ...]\"");
+        System.out.println("Server options: host=<server>, port=<n, default 12345>");
+        System.out.println("                read-timeout=<ms to wait for the server during the game, default 30000>");
+        System.out.println("                join-timeout=<ms to wait for the opponent to join, 0 for no limit, default 0>");
+        System.out.println("                reconnect=<times a lost connection is opened again to resume the game, default 0>");
+        System.out.println("AI options: tt-mb=<transposition table size in MB, default 64>");
+        System.out.println("            move-time=<time per move in ms, default 9900>");
+        System.out.println("            threads=<number of search threads, default 1>");
+        System.out.println("            search=<pvs|alphabeta, search algorithm, default alphabeta>");
+        System.out.println("            aspiration=<half width of the aspiration window, 0 for none, default 0>");
+        System.out.println("            lmr=<reduce moves after this many in quiet positions, 0 for none, default 0>");
+        System.out.println("            threat-extensions=<true|false, search forcing moves deeper, default false>");
+        System.out.println("            symmetry=<true|false, share table entries of mirrored boards, default true>");
+        System.out.println("            uct-c=<mcts: exploration constant of UCT, default 1.0>");
+        System.out.println("            playout-plies=<mcts: playouts longer than this are a draw, default 100>");
+        System.out.println("            max-depth=<stop after this search depth, default unlimited>");
+        System.out.println("            ponder=<true|false, search while the opponent is thinking, default false>");
+        System.out.println("            solution=<solution file for 5x4 boards, default solution-5x4.bin>");
+        System.out.println("To solve the 5x4 game, run \"Ternary solve [file] [threads]\"");
+        System.out.println("To count the move sequences of a given length, run \"Ternary perft <depth> [large-grid] [threads=<n>] [move ...]\"");
+        System.out.println("To check the win detection in random games, run \"Ternary verify [games, default 10000] [seed, default 1]\"");
+        System.out.println("To run a local game server, run \"Ternary server [large-grid] [port=<n, default 12345>] [timeout=<ms per move, default 10000>]\"");
+        System.out.println("To play several server games in one process, run \"Ternary multi <ai|mcts> <gamename>:<w|b> ... [large-grid] [pool=<search workers of all games, default number of cores>] [option=value ...]\"");
+        System.out.println("To play two engines against each other, run \"Ternary tournament <ai|mcts> <ai|mcts> [large-grid] [option=value ...]\"");
+        System.out.println("Tournament options: games=<number of games, default 100>");
+        System.out.println("                    parallel=<games played at the same time, default number of cores>");
+        System.out.println("                    opening-plies=<random moves before the engines take over, default 2>");
+        System.out.println("                    max-plies=<draw after this many plies, default 200>");
+        System.out.println("                    seed=<seed of the random openings, default 1>");
+        System.out.println("                    verbose=<true|false, show the output of the engines, default false>");
+        System.out.println("                    a.<AI option>=<value>, b.<AI option>=<value>, or <AI option>=<value> for both");
         System.exit(1);
     }
 }
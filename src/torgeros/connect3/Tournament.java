@@ -0,0 +1,387 @@
+package torgeros.connect3;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import torgeros.connect3.Board.Field;
+import torgeros.connect3.ConnectThree.PlayerColor;
+import torgeros.connect3.agent.Agent;
+import torgeros.connect3.agent.Ai;
+import torgeros.connect3.agent.AiOptions;
+import torgeros.connect3.agent.LatencyHistogram;
+import torgeros.connect3.agent.MctsAi;
+import torgeros.connect3.agent.SearchStatistics;
+
+/**
+ * plays two engines against each other in-process, without the server, with the rules of ConnectThree.
+ *
+ * Games are played in pairs: both games of a pair start with the same random opening (openingPlies random moves),
+ * once with engine A as white and once as black, so an opening that favors one color favors both engines once.
+ * A game is a draw after threefold repetition or after maxPlies plies. An engine that makes an invalid move loses.
+ *
+ * Several games run in parallel, each with its own agents, so the options of the engines (e.g. tt-mb, tree-mb)
+ * have to fit into the heap parallel times.
+ *
+ * An ai with the 5x4 solution does not search at all, so the solution is only used if it is set with an option.
+ */
+public class Tournament {
+    /**
+     * 1.96: two sided 95% confidence interval of a normal distribution.
+     */
+    private static final double Z_95 = 1.96;
+
+    final String[] engines = new String[2];
+    final AiOptions[] options = {new AiOptions(), new AiOptions()};
+    boolean largeGrid = false;
+    int games = 100;
+    int parallel = Runtime.getRuntime().availableProcessors();
+    int openingPlies = 2;
+    int maxPlies = 200;
+    long seed = 1;
+    boolean verbose = false;
+
+    /**
+     * results and statistics of both engines, guarded by this.
+     */
+    private final int[] wins = new int[2];
+    private int draws;
+    private final long[] moves = new long[2];
+    private final long[] depthSum = new long[2];
+    private final long[] nodes = new long[2];
+    private final long[] searchNs = new long[2];
+    private final MoveLatencies[] latencies = new MoveLatencies[2];
+    private int finishedGames;
+
+    /**
+     * @param engineA,engineB "ai" or "mcts"
+     */
+    public Tournament(final String engineA, final String engineB) {
+        engines[0] = checkEngine(engineA);
+        engines[1] = checkEngine(engineB);
+        options[0].solutionFile = null;
+        options[1].solutionFile = null;
+    }
+
+    private static String checkEngine(final String engine) {
+        if (!engine.equals("ai") && !engine.equals("mcts")) {
+            throw new IllegalArgumentException(String.format("unknown engine \"%s\", use ai or mcts", engine));
+        }
+        return engine;
+    }
+
+    /**
+     * sets one option from its command line name and value.
+     * "a.name" and "b.name" set an AiOptions option of one engine, other AiOptions options are set for both.
+     * @throws IllegalArgumentException for unknown names and invalid values
+     */
+    public void set(final String name, final String value) {
+        switch (name) {
+            case "games":
+                games = parseInt(name, value, 1);
+                break;
+            case "parallel":
+                parallel = parseInt(name, value, 1);
+                break;
+            case "opening-plies":
+                openingPlies = parseInt(name, value, 0);
+                break;
+            case "max-plies":
+                maxPlies = parseInt(name, value, 1);
+                break;
+            case "seed":
+                seed = parseInt(name, value, 0);
+                break;
+            case "verbose":
+                if (!value.equals("true") && !value.equals("false")) {
+                    throw new IllegalArgumentException(String.format("option %s needs true or false, got \"%s\"", name, value));
+                }
+                verbose = value.equals("true");
+                break;
+            default:
+                if (name.startsWith("a.")) {
+                    options[0].set(name.substring(2), value);
+                } else if (name.startsWith("b.")) {
+                    options[1].set(name.substring(2), value);
+                } else {
+                    options[0].set(name, value);
+                    options[1].set(name, value);
+                }
+        }
+    }
+
+    private static int parseInt(final String name, final String value, final int min) {
+        final int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("option %s needs a number, got \"%s\"", name, value));
+        }
+        if (parsed < min) {
+            throw new IllegalArgumentException(String.format("option %s has to be at least %d", name, min));
+        }
+        return parsed;
+    }
+
+    /**
+     * plays all games and prints the result.
+     * The output of the agents is dropped unless verbose is set, since parallel games would mix it up.
+     */
+    public void run() {
+        final PrintStream out = System.out;
+        for (int engine = 0; engine < 2; engine++) {
+            latencies[engine] = largeGrid ? new MoveLatencies(7, 6) : new MoveLatencies(5, 4);
+        }
+        out.printf("tournament: A %s vs B %s, %d games on %s, %d in parallel, %d ms per move.%n",
+                engines[0], engines[1], games, largeGrid ? "7x6" : "5x4", parallel, options[0].moveTimeMs);
+        for (int engine = 0; engine < 2; engine++) {
+            if (engines[engine].equals("ai") && options[engine].solutionFile != null && !largeGrid) {
+                out.printf("%s looks its moves up in %s if that file exists, instead of searching.%n",
+                        engine == 0 ? "A" : "B", options[engine].solutionFile);
+            }
+        }
+        if (!verbose) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        try {
+            final ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+            for (int game = 0; game < games; game++) {
+                final int number = game;
+                results.add(pool.submit(() -> playGame(number, out)));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("game failed", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+            System.setOut(out);
+        }
+        printSummary(out);
+    }
+
+    /**
+     * plays one game, engine A is white in even games.
+     */
+    private void playGame(final int game, final PrintStream out) {
+        final boolean aIsWhite = game % 2 == 0;
+        final Board board = largeGrid ? new Board(7, 6) : new Board(5, 4);
+        ConnectThree.setStartPosition(board);
+        // both games of a pair get the same opening
+        PlayerColor toMove = playOpening(board, new Random(seed * 31 + game / 2));
+
+        final Agent white = createAgent(aIsWhite ? 0 : 1, PlayerColor.WHITE_PLAYER);
+        final Agent black = createAgent(aIsWhite ? 1 : 0, PlayerColor.BLACK_PLAYER);
+        final HashMap<String, Integer> positions = new HashMap<String, Integer>();
+        String result = "draw by move limit";
+        PlayerColor winner = null;
+        try {
+            // the agent to move sees the board before every own move,
+            // and both see it after every move (see ConnectThree)
+            (toMove == PlayerColor.WHITE_PLAYER ? white : black).updateInternalBoard(board);
+            for (int ply = 0; ply < maxPlies; ply++) {
+                final boolean whiteMoves = toMove == PlayerColor.WHITE_PLAYER;
+                final Agent mover = whiteMoves ? white : black;
+                final Agent opponent = whiteMoves ? black : white;
+                final int engine = (whiteMoves == aIsWhite) ? 0 : 1;
+                final PlayerColor other = whiteMoves ? PlayerColor.BLACK_PLAYER : PlayerColor.WHITE_PLAYER;
+                // a side that can not move loses, as in the search of the agents (see Ai#checkHasMove)
+                if (validMoves(board, toMove).isEmpty()) {
+                    result = "no legal move";
+                    winner = other;
+                    break;
+                }
+                final long start = System.nanoTime();
+                final String move;
+                try {
+                    move = mover.getBestMove();
+                } catch (RuntimeException ex) {
+                    // the agent forfeits this game, the other games go on
+                    result = String.format("%s failed: %s", engine == 0 ? "A" : "B", ex);
+                    winner = other;
+                    break;
+                }
+                record(engine, openingPlies + ply, mover.lastSearch(), System.nanoTime() - start);
+                if (!ConnectThree.applyMove(board, toMove, move)) {
+                    result = String.format("invalid move %s", move);
+                    winner = other;
+                    break;
+                }
+                mover.updateInternalBoard(board);
+                opponent.updateInternalBoard(board);
+                if (ConnectThree.isWinningMove(board, move)) {
+                    result = "three in a row";
+                    winner = toMove;
+                    break;
+                }
+                // the side to move is part of the position, but it follows from the fields (see agent.Zobrist)
+                if (positions.merge(key(board), 1, Integer::sum) == 3) {
+                    result = "draw by repetition";
+                    break;
+                }
+                mover.opponentThinking();
+                toMove = other;
+            }
+        } finally {
+            // with threads or ponder, every agent has a pool of its own
+            white.close();
+            black.close();
+        }
+
+        synchronized (this) {
+            if (winner == null) {
+                draws++;
+            } else {
+                wins[(winner == PlayerColor.WHITE_PLAYER) == aIsWhite ? 0 : 1]++;
+            }
+            finishedGames++;
+            out.printf("game %d (A %s): %s, %s. A %d, B %d, draws %d.%n",
+                    game, aIsWhite ? "white" : "black",
+                    winner == null ? "draw" : (winner == PlayerColor.WHITE_PLAYER) == aIsWhite ? "A wins" : "B wins",
+                    result, wins[0], wins[1], draws);
+        }
+    }
+
+    /**
+     * plays openingPlies random valid moves, white first. Openings that end the game are played again.
+     * @return the color to move after the opening
+     */
+    private PlayerColor playOpening(final Board board, final Random random) {
+        final Field[][] start = board.getCopyOfBoard();
+        while (true) {
+            PlayerColor toMove = PlayerColor.WHITE_PLAYER;
+            for (int ply = 0; ply < openingPlies && !board.isTerminal(); ply++) {
+                final ArrayList<String> moves = validMoves(board, toMove);
+                ConnectThree.applyMove(board, toMove, moves.get(random.nextInt(moves.size())));
+                toMove = toMove == PlayerColor.WHITE_PLAYER ? PlayerColor.BLACK_PLAYER : PlayerColor.WHITE_PLAYER;
+            }
+            if (!board.isTerminal()) {
+                return toMove;
+            }
+            for (int x = 1; x <= board.width; x++) {
+                for (int y = 1; y <= board.height; y++) {
+                    board.set(x, y, start[x-1][y-1]);
+                }
+            }
+        }
+    }
+
+    private static ArrayList<String> validMoves(final Board board, final PlayerColor player) {
+        final ArrayList<String> moves = new ArrayList<String>();
+        for (int x = 1; x <= board.width; x++) {
+            for (int y = 1; y <= board.height; y++) {
+                for (char direction : new char[] {'N', 'E', 'S', 'W'}) {
+                    final String move = String.format("%d%d%c", x, y, direction);
+                    final Board copy = copy(board);
+                    if (ConnectThree.applyMove(copy, player, move)) {
+                        moves.add(move);
+                    }
+                }
+            }
+        }
+        return moves;
+    }
+
+    private static Board copy(final Board board) {
+        final Board copy = new Board(board.width, board.height);
+        for (int x = 1; x <= board.width; x++) {
+            for (int y = 1; y <= board.height; y++) {
+                copy.set(x, y, board.get(x, y));
+            }
+        }
+        return copy;
+    }
+
+    private static String key(final Board board) {
+        final StringBuilder key = new StringBuilder();
+        for (int y = 1; y <= board.height; y++) {
+            for (int x = 1; x <= board.width; x++) {
+                key.append(board.get(x, y).getChar());
+            }
+        }
+        return key.toString();
+    }
+
+    private Agent createAgent(final int engine, final PlayerColor color) {
+        if (engines[engine].equals("mcts")) {
+            return new MctsAi(color, options[engine]);
+        }
+        return new Ai(color, options[engine]);
+    }
+
+    private synchronized void record(final int engine, final int ply, final SearchStatistics statistics, final long elapsedNs) {
+        moves[engine]++;
+        latencies[engine].record(ply, statistics != null ? statistics.depth : 0, elapsedNs);
+        if (statistics != null) {
+            depthSum[engine] += statistics.depth;
+            nodes[engine] += statistics.nodes;
+            searchNs[engine] += statistics.elapsedNs;
+        }
+    }
+
+    /**
+     * prints the score of engine A, the Elo difference that score means and its 95% confidence interval.
+     * The interval is the Wilson score interval of the score, see wilson.
+     */
+    private synchronized void printSummary(final PrintStream out) {
+        final int n = finishedGames;
+        final int losses = n - wins[0] - draws;
+        final double score = (wins[0] + 0.5 * draws) / n;
+        out.printf("result: A %s: %d wins, %d draws, %d losses against B %s (score %.1f%%).%n",
+                engines[0], wins[0], draws, losses, engines[1], 100 * score);
+        out.printf("Elo difference A-B: %s, 95%% confidence interval [%s, %s].%n",
+                formatElo(elo(score)),
+                formatElo(elo(wilson(score, n, -Z_95))), formatElo(elo(wilson(score, n, Z_95))));
+        for (int engine = 0; engine < 2; engine++) {
+            final double seconds = searchNs[engine] / 1e9;
+            final LatencyHistogram moveTimes = latencies[engine].all();
+            out.printf("%s %s: %d moves, average depth %.1f, %.0f nodes per second, move time p50 %d ms, p99 %d ms, max %d ms.%n",
+                    engine == 0 ? "A" : "B", engines[engine], moves[engine],
+                    moves[engine] > 0 ? (double) depthSum[engine] / moves[engine] : 0,
+                    seconds > 0 ? nodes[engine] / seconds : 0, moveTimes.valueAtPercentile(50) / 1_000_000,
+                    moveTimes.valueAtPercentile(99) / 1_000_000, moveTimes.max() / 1_000_000);
+        }
+    }
+
+    /**
+     * bound of the Wilson score interval: the true score for which the measured one is z standard errors away.
+     * Unlike the normal approximation around the measured score, it does not collapse at 0% or 100%:
+     * after n lost games the upper bound is still above 0. Draws count as half a win, as if each game
+     * were a coin flip with the score as probability, which makes the interval a bit wider than needed.
+     * @param z negative for the lower bound, positive for the upper one
+     */
+    private static double wilson(final double score, final int n, final double z) {
+        final double k = z * z / n;
+        return (score + k / 2 + z * Math.sqrt(score * (1 - score) / n + k / (4 * n))) / (1 + k);
+    }
+
+    /**
+     * @return the Elo difference at which the expected score is score, +-infinity for 100% and 0%
+     */
+    private static double elo(final double score) {
+        if (score <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        } else if (score >= 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    private static String formatElo(final double elo) {
+        if (Double.isInfinite(elo)) {
+            return elo > 0 ? "+inf" : "-inf";
+        }
+        // adding 0 turns -0 into 0
+        return String.format("%+.0f", elo + 0.0);
+    }
+}
@@ -5,4 +5,26 @@ import torgeros.connect3.Board;
 public interface Agent {
     public void updateInternalBoard(Board board);
     public String getBestMove();
+
+    /**
+     * called after the own move has been sent, while the opponent is thinking about the reply.
+     * The agent may use this time in the background, but has to stop once updateInternalBoard is called.
+     */
+    public default void opponentThinking() {
+    }
+
+    /**
+     * @return statistics of the last getBestMove, null if the agent does not search.
+     */
+    public default SearchStatistics lastSearch() {
+        return null;
+    }
+
+    /**
+     * called once the game is over or has been aborted. Stops everything the agent runs in the background
+     * and shuts down the threads of the agent, but not a pool it shares with other agents (see AiOptions#pool).
+     * The agent is not used afterwards.
+     */
+    public default void close() {
+    }
 }
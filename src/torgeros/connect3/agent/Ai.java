@@ -1,43 +1,45 @@
 package torgeros.connect3.agent;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import torgeros.connect3.ConnectThree.PlayerColor;
 import torgeros.connect3.Board;
 import torgeros.connect3.Board.Field;
-import torgeros.connect3.Util;
 
 public class Ai implements Agent {
-    Field[][] currentBoard;
-    int boardWidth;
-    int boardHeight;
-    String serializedCurrentBoard;
-
-    protected final Field maximizingColor; // own color
-    protected final Field minimizingColor; // opponents color
     /**
-     * initialized node for the heuristic to work with, to safe processing time.
-     * including the margin of two null-Fields as discussed in the heuristic method.
+     * the current game state. Every Searcher works on its own copy.
+     */
+    Bitboard currentBoard;
+    /**
+     * bit numbering and line masks for the current board size, see BitboardLayout.
+     * only replaced if the board size changes.
      */
-    Field[][] nodeWithMargin;
+    BitboardLayout layout;
 
+    protected final Field maximizingColor; // own color
+    protected final Field minimizingColor; // opponents color
 
     /**
      * depth for first iteration.
-     * Has to be a range for which any initial state takes less than START_OF_CUTOFF_MS to completely expand.
+     * Has to be a range for which any initial state takes less than the time budget (AiOptions#moveTimeMs) to completely expand.
      * Is now fixed to 1 to make special cases of winning and losing in the near future acceptable.
      * DO NOT CHANGE!
      */
     protected int START_SEARCH_DEPTH = 1;
 
     /**
-     * time in milliseconds at which predicting is stopped.
-     * - ping to server is ~.15 ms.
-     * - sucessfully topping everything once the timer ha run out: eval gives ~1 ms.
+     * the search polls the clock once every POLL_INTERVAL nodes (a power of two).
+     * at a few million nodes per second this is well below a millisecond.
      */
-    protected int START_OF_CUTOFF_MS = 9900;
+    final int POLL_INTERVAL = 1024;
 
     /**
      * score given (positive/negative) for a safe win.
@@ -50,10 +52,21 @@ public class Ai implements Agent {
      * used to weight early over late wins/losses.
      * has to be bigger than the biggest ever to be reached search depth
      * has to be in a range that multiplying this with SCORE_SAFE_WIN can not overflow
-     * is decreased by 1 for every layer of the tree we search
+     * is decreased by 1 for every ply between the root and the terminal node
      */
     final int SCORE_FACTOR_FOR_DEPTH_1 = 100;
 
+    /**
+     * no node is searched deeper than this ply, so the weight (SCORE_FACTOR_FOR_DEPTH_1 - ply) of a win stays > 1.
+     * only reachable if the transposition table makes every iteration trivial, e.g. for forced results.
+     */
+    final int MAX_SEARCH_DEPTH = SCORE_FACTOR_FOR_DEPTH_1 - 2;
+
+    /**
+     * late move reductions only happen with at least this much depth left, so the reduced search still has one ply.
+     */
+    final int REDUCTION_MIN_DEPTH = 3;
+
     /**
      * run of three: safe win.
      * run of two: good, score 50. Max number of 2-runs is 6 for a 2x2 square.
@@ -68,49 +81,133 @@ public class Ai implements Agent {
     final boolean PICK_RANDOM_BEST = true;
     SecureRandom random;
 
-    long startOfCurrentOperationTimestamp;
-
     /**
-     * used for the following stateCounter object.
-     * extends the HashMap by a function to in-/decrease values that are not necessarily present in the map.
+     * deadlines of the current search, see TimeManager.
      */
-    class StateCounter extends HashMap<String, Integer> {
-        public StateCounter() {
-            super();
-        }
-
-        public void increase(final String serializedNode) {
-            if (super.containsKey(serializedNode)) {
-                super.replace(serializedNode, super.get(serializedNode) + 1);
-            } else {
-                super.put(serializedNode, 1);
-            }
-        }
+    final TimeManager timeManager;
 
-        public void decrease(final String serializedNode)  {
-            super.replace(serializedNode, super.get(serializedNode) - 1);
-        }
-
-        public int get(final String serializedNode) {
-            if (super.get(serializedNode) == null) {
-                return 0;
-            }
-            return super.get(serializedNode);
-        }
-    }
+    /**
+     * set once the main searcher is done or the hard deadline has passed, so all searchers stop.
+     * also used to cancel pondering.
+     */
+    volatile boolean stopSearch;
 
     /**
      * counts the number of times a state has been visited.
      * used to check for threefold repitition-checking.
-     * key is a serialized board, see #serializeNode(node).
-     * value is a Integer denoting the time a state has been visited.
+     * key is the Zobrist hash of a board, see Bitboard#hash.
+     * value is the number of times a state has been visited.
      * 
-     * This stateCounter is used to keep track of the actual game history across moves.
-     * THIS OBJECT IS MODIFIED DURING A RUN ON MINIMAX, BUT SHOULD RE-ENTER IT'S OLD STATE ON RETURN.
+     * This stateCounter only holds the actual game history across moves.
+     * Every Searcher copies it before a search and modifies its copy during minimax.
+     */
+    RepetitionCounter stateCounter;
+
+    /**
+     * results of previous searches, keyed by the Zobrist hash of the node.
+     * Kept between moves, old entries age out by generation (see TranspositionTable#newSearch).
+     * shared by all searchers, see TranspositionTable for why this needs no locking.
+     */
+    final TranspositionTable transpositionTable;
+
+    /**
+     * Lazy SMP: every searcher runs its own iterative deepening on the same root, they only share the transposition table.
+     * searchers[0] is the main searcher, it runs on the calling thread (on the shared pool, if there is one)
+     * and decides the move.
+     * The helpers fill the table with results the main searcher would otherwise have to compute itself.
+     * Recreated if the board size changes.
+     */
+    Searcher[] searchers;
+
+    /**
+     * number of searchers, i.e. threads used by getBestMove.
+     */
+    final int threads;
+
+    /**
+     * runs searchers[1..], and all searchers while pondering. null if neither is needed.
+     * Either a pool of this agent, or the pool shared by all agents of the process, see AiOptions#pool.
+     */
+    final SearchPool helperPool;
+
+    /**
+     * true if helperPool is the shared one of AiOptions#pool: it runs the main searcher as well,
+     * and close must not shut it down.
+     */
+    final boolean sharedPool;
+
+    /**
+     * search the opponent's replies while the opponent is thinking, see opponentThinking().
+     */
+    final boolean ponder;
+
+    /**
+     * the running pondering searches, empty if the agent is not pondering.
+     */
+    final ArrayList<SearchTask> ponderTasks = new ArrayList<SearchTask>();
+
+    /**
+     * PV of the last search or pondering, starting at lastPvRoot with lastPvColor to move.
+     * Once the first moves of it have been played, the rest of it seeds the PV of the next search.
+     * lastPvRoot is null if there is no such PV.
+     */
+    int[] lastPv;
+    Bitboard lastPvRoot;
+    Field lastPvColor;
+
+    /**
+     * perfect-play values of the 5x4 game, null if no solution file is available.
+     * If it covers the current board, getBestMove looks the move up instead of searching.
+     */
+    final Solution solution;
+
+    /**
+     * every solution file opened by this process, see openSolution.
+     */
+    private static final HashMap<Path, Solution> SOLUTIONS = new HashMap<Path, Solution>();
+
+    /**
+     * statistics of the last getBestMove, null before the first one.
+     */
+    SearchStatistics lastSearch;
+
+    /**
+     * iterative deepening stops after this depth, even if there is time left.
+     */
+    final int maxDepth;
+
+    /**
+     * principal variation search: every move after the first is searched with a null window first,
+     * and only searched again with the full window if it turns out better. See Searcher#searchChild.
+     */
+    final boolean pvs;
+
+    /**
+     * half width of the aspiration window around the score of the previous iteration, 0 for a full window.
+     */
+    final int aspirationWindow;
+
+    /**
+     * moves after the first lateMoveReductions ones of a node are searched one ply less deep, 0 for none.
+     * See Searcher#searchMove.
+     */
+    final int lateMoveReductions;
+
+    /**
+     * moves that create or block a threat (see Bitboard#threats) are searched one ply deeper.
      */
-    StateCounter stateCounter;
+    final boolean threatExtensions;
+
+    /**
+     * store symmetric boards in one transposition table entry, see tableSymmetry.
+     */
+    final boolean symmetricTable;
 
     public Ai(PlayerColor ownColor) {
+        this(ownColor, new AiOptions());
+    }
+
+    public Ai(PlayerColor ownColor, AiOptions options) {
         if (ownColor == PlayerColor.WHITE_PLAYER) {
             maximizingColor = Field.WHITE;
             minimizingColor = Field.BLACK;
@@ -119,11 +216,33 @@ public class Ai implements Agent {
             minimizingColor = Field.WHITE;
         }
 
-        stateCounter = new StateCounter();
+        stateCounter = new RepetitionCounter();
+        transpositionTable = new TranspositionTable(options.transpositionTableMb);
+        timeManager = new TimeManager(options.moveTimeMs);
+        threads = options.threads;
+        maxDepth = Integer.min(options.maxDepth, MAX_SEARCH_DEPTH);
+        pvs = options.search.equals(AiOptions.SEARCH_PVS);
+        aspirationWindow = options.aspirationWindow;
+        lateMoveReductions = options.lateMoveReductions;
+        threatExtensions = options.threatExtensions;
+        symmetricTable = options.symmetricTable;
+        ponder = options.ponder;
+        // while pondering, the main searcher needs a thread of its own as well
+        final int poolSize = ponder ? threads : threads - 1;
+        sharedPool = options.pool != null;
+        if (sharedPool) {
+            helperPool = options.pool;
+        } else if (poolSize > 0) {
+            helperPool = new SearchPool(poolSize, "ai-helper");
+        } else {
+            helperPool = null;
+        }
 
         if (PICK_RANDOM_BEST) {
             random = new SecureRandom();
         }
+        solution = options.solutionFile != null ? openSolution(options.solutionFile) : null;
+        SearchEvent.load();
         System.out.printf("created new AI that plays %s (%c)%n", ownColor.getClientName(), maximizingColor.getChar());
     }
 
@@ -134,294 +253,448 @@ public class Ai implements Agent {
      * @param board
      */
     public void updateInternalBoard(final Board board) {
-        currentBoard = board.getCopyOfBoard();
-        boardWidth = board.width;
-        boardHeight = board.height;
-        serializedCurrentBoard = serializeNode(currentBoard);
-        nodeWithMargin = new Field[boardWidth + 4][boardHeight + 4]; // set all fields to null
+        stopPondering();
+        if (layout == null || layout.width != board.width || layout.height != board.height) {
+            layout = new BitboardLayout(board.width, board.height);
+            searchers = new Searcher[threads];
+            for (int i = 0; i < threads; i++) {
+                searchers[i] = new Searcher();
+            }
+            // results for another board size are of no use
+            transpositionTable.clear();
+            lastPvRoot = null;
+        }
+        currentBoard = Bitboard.fromBoard(board, layout);
 
         // increase stateCounter for new board that opponent "created".
-        stateCounter.increase(serializedCurrentBoard);
+        stateCounter.increase(currentBoard.hash);
     }
 
     /**
      * Perform minimax with alpha-beta-pruning for all the current node/board.
      * All children of the board are evaluated.
      * The "splitting" in subtrees or each child makes it easy to get the actual node out and not just the value/rating of the node.
+     * With more than one thread, the helper searchers run in parallel until the main searcher is done.
+     * The transposition table and the PV of the previous search are kept, so iterative deepening
+     * starts at the depth to which the current board has already been searched (see trustedDepth).
+     * With a shared pool, the main searcher runs on the pool as well, see SearchPool.
      * @return the best of move in the defiend syntax
      */
     public String getBestMove() {
-        startOfCurrentOperationTimestamp = System.currentTimeMillis();
+        final long start = System.nanoTime();
+        final SearchEvent event = new SearchEvent("ai", maximizingColor.name());
+        event.begin();
+        stopPondering();
+        checkHasMove(currentBoard, maximizingColor);
+        if (solution != null && solution.covers(currentBoard)) {
+            final int move = solvedMove();
+            lastSearch = new SearchStatistics(0, 0, System.nanoTime() - start);
+            event.commit(lastSearch);
+            return getMoveString(move);
+        }
+        // the clock runs from here, time spent waiting for a thread of the shared pool counts
+        timeManager.startMove();
+        if (sharedPool) {
+            final String[] move = new String[1];
+            SearchTask.run(helperPool, () -> move[0] = search(start, event));
+            return move[0];
+        }
+        return search(start, event);
+    }
+
+    private String search(final long start, final SearchEvent event) {
+        stopSearch = false;
+        transpositionTable.newSearch();
+        final int[] carriedPv = carriedPv(maximizingColor);
+        final long rootEntry = probeTable(currentBoard);
+        final int firstDepth = trustedDepth(rootEntry);
+        if (firstDepth > START_SEARCH_DEPTH) {
+            System.out.printf("board already searched to depth %d, continuing from there.%n", firstDepth);
+        }
+        for (Searcher searcher : searchers) {
+            searcher.prepare();
+            searcher.ordering.setPreviousPv(carriedPv);
+        }
 
+        ArrayList<SearchTask> helpers = new ArrayList<SearchTask>();
+        for (int i = 1; i < searchers.length; i++) {
+            final Searcher helper = searchers[i];
+            // every other helper searches one ply deeper, so the threads do not all work on the same iteration
+            final int helperFirstDepth = firstDepth + (i % 2);
+            helpers.add(SearchTask.submit(helperPool, SearchPool.HELPER, () -> helper.iterativeDeepening(helperFirstDepth)));
+        }
+
+        final Searcher main = searchers[0];
         int bestNodesValue = Integer.MIN_VALUE;
-        Field[][] bestNode = null;
+        // in case not even the first iteration completes, the move stored in the table is still better than none
+        final int rootTableMove = tableMove(currentBoard, rootEntry);
+        int bestMove = main.isRootMove(rootTableMove) ? rootTableMove : Move.NONE;
 
-        int depth = START_SEARCH_DEPTH;
+        int depth = firstDepth;
         // start iterative deepening
-        for ( ; ; depth++) {
-            Field[][] bestNodeForThisDepth = null;
-
-            /*
-            rewritten MAX part of minimax,
-            for getting the node Field[][]-instance rather than its value.
-            includes alpha-pruning, beta is irrelevant because we are maxing.
-            */
-            int bestValueForThisDepth = Integer.MIN_VALUE;
-            int alpha = Integer.MIN_VALUE;
-            for (Field[][] child : getChildren(currentBoard, maximizingColor)) {
-                String serializedChild = serializeNode(child);
-                stateCounter.increase(serializedChild);
-                int mm = minimax(child, depth - 1, alpha, Integer.MAX_VALUE, false);
-                stateCounter.decrease(serializedChild);
-                if (shouldStop()) {
-                    break;
-                }
-                if (mm > bestValueForThisDepth) {
-                    // if current child is better than best known: replace.
-                    bestValueForThisDepth = mm;
-                    bestNodeForThisDepth = child;
-                } else if (mm == bestValueForThisDepth
-                        && random.nextBoolean()) {
-                    // if current child is equally good as best known: replace randomly.
-                    bestNodeForThisDepth = child;
-                }
-                alpha = Integer.max(alpha, bestValueForThisDepth);
-            }
+        for ( ; depth <= maxDepth; depth++) {
+            final int bestValueForThisDepth = aspirationSearch(main, depth, bestMove, bestNodesValue);
 
-            // if we ran out of time during the search, skip storing the best result
+            // if we ran out of time during the search, the root moves that were completed can still be used:
+            // the first one is the best move so far, any other one only replaced it by proving to be better,
+            // or exactly as good, at this depth.
+            // unless all completed moves lose, the unsearched ones can not be worse than that.
             if (shouldStop()) {
+                if (main.bestRootMove != Move.NONE && bestValueForThisDepth > -SCORE_SAFE_WIN) {
+                    System.out.printf("using partial search to depth %d, %d of %d moves searched.%n",
+                            depth, main.searchedRootMoves, main.rootMoveCount);
+                    bestMove = main.bestRootMove;
+                    bestNodesValue = bestValueForThisDepth;
+                    main.ordering.completeIteration();
+                }
                 break;
             }
+            main.ordering.completeIteration();
 
+            boolean bestMoveChanged = false;
             // if this depth has only safe losses, use best node from previous depth.
-            // not allowed when depth is START_SEARCH_DEPTH, because there was no previous search
-            if (bestValueForThisDepth == -SCORE_SAFE_WIN && depth != START_SEARCH_DEPTH) {
+            // not allowed when depth is firstDepth, because there was no previous search
+            if (bestValueForThisDepth == -SCORE_SAFE_WIN && depth != firstDepth) {
                 System.out.printf("skipping best result from depth %d, it is a safe loss.%n", depth);
-                continue; // continuing allows to find draws
+                // continuing allows to find draws
+            } else {
+                // if the search at this depth was able to complete, overwrite bestMove
+                bestMoveChanged = bestMove != main.bestRootMove;
+                bestMove = main.bestRootMove;
+                bestNodesValue = bestValueForThisDepth;
+                // if safe win is found, take it.
+                if (bestNodesValue >= SCORE_SAFE_WIN) {
+                    depth++; // search did complete at current depth
+                    break;
+                }
             }
-
-            // if the search at this depth was able to complete, overwrite bestNode
-            bestNode = bestNodeForThisDepth;
-            bestNodesValue = bestValueForThisDepth;
-            // if safe win is found, take it.
-            if (bestNodesValue >= SCORE_SAFE_WIN) {
-                depth++; // search did complete at current depth
+            // with a single legal move there is nothing to decide
+            if (main.rootMoveCount == 1) {
+                depth++;
+                break;
+            }
+            timeManager.iterationCompleted(bestMoveChanged);
+            if (!timeManager.canStartIteration()) {
+                depth++;
                 break;
             }
         }
+
+        stopSearch = true;
+        for (SearchTask helper : helpers) {
+            helper.finish();
+        }
+        rememberPv(main.ordering.getPreviousPv(), maximizingColor);
+        lastSearch = collectStatistics(depth - 1, System.nanoTime() - start);
+        event.commit(lastSearch);
         // complete search was to depth-1
-        System.out.printf("completed search to depth %d. Best moves value is %d.%n", depth-1, bestNodesValue);
-        return getMoveFromDiff(currentBoard, bestNode);
+        System.out.printf("completed search to depth %d in %d ms. Best moves value is %d.%n",
+                depth-1, timeManager.elapsedMs(), bestNodesValue);
+        return getMoveString(bestMove);
     }
 
     /**
-     * minimax with alpha-beta-pruning and some other (documented) tweaks
-     * https://en.wikipedia.org/wiki/Minimax#Pseudocode
-     * https://en.wikipedia.org/wiki/Alpha%E2%80%93beta_pruning#Pseudocode (soft-fail)
-     * MAX player is this agent. The opponent is MIN.
-     * the higher the return value, the better for this agent.
-     */
-    protected int minimax(Field[][] node, int depth, int alpha, int beta, boolean maximizingPlayer) {
-        if (shouldStop()) {
-            return 0;
-        }
-        // if this state leads to a direct draw, return utility of 0
-        if (stateCounter.get(serializeNode(node)) == 3) {
-            return 0;
-        }
-        // terminal state: win/loss score weighted by distance.
-        if (isTerminal(node)) {
-            /*
-            weighting to prefer early results over late results.
-            the distance from the current game state is given by the current search depth
-            and the relative distance from this terminal node to the depth limit i.e. the param "depth".
-            */
-
-            /*
-            we can only enter a terminal state when the player who's turn it is wins
-            if we are in a terminal state and is MAX's turn, we know MIN has just won. And the other way around.
-            */
-
-            return /* weight */       (SCORE_FACTOR_FOR_DEPTH_1 - depth) *
-                   /* min/max score*/ (maximizingPlayer?-SCORE_SAFE_WIN:SCORE_SAFE_WIN);
-        }
-        // depth cutoff
-        if (depth == 0) {
-            return heuristic(node);
-        }
-        if (maximizingPlayer) {
-            int value = Integer.MIN_VALUE;
-            for (Field[][] child : getChildren(node, maximizingColor)) {
-                String serializedChild = serializeNode(child);
-                stateCounter.increase(serializedChild);
-                int childValue = minimax(child, depth - 1, alpha, beta, false);
-                stateCounter.decrease(serializedChild);
-                if (childValue > value) {
-                    value = childValue; // replacement for max function
-                }
-                alpha = Integer.max(alpha, value);
-                if (value >= beta) {
-                    break;
-                }
+     * searches the root with a window of +-aspirationWindow around the score of the previous iteration.
+     * If the score falls outside of it, the window was wrong and the root is searched again with a full window.
+     * Win and loss scores jump between iterations, so there is no window around them.
+     */
+    private int aspirationSearch(final Searcher main, final int depth, final int bestMove, final int previousValue) {
+        if (aspirationWindow > 0 && previousValue != Integer.MIN_VALUE && Math.abs(previousValue) < SCORE_SAFE_WIN) {
+            final int alpha = previousValue - aspirationWindow;
+            final int beta = previousValue + aspirationWindow;
+            final int value = main.searchRoot(depth, bestMove, random, alpha, beta);
+            if (value > alpha && value < beta) {
+                return value;
             }
-            return value;
-        } else {
-            int value = Integer.MAX_VALUE;
-            for (Field[][] child : getChildren(node, minimizingColor)) {
-                String serializedChild = serializeNode(child);
-                stateCounter.increase(serializedChild);
-                int childValue = minimax(child, depth - 1, alpha, beta, true);
-                stateCounter.decrease(serializedChild);
-                if (childValue < value) {
-                    value = childValue; // replacement for min function
-                }
-                beta = Integer.min(beta, value);
+            if (shouldStop()) {
                 if (value <= alpha) {
-                    break;
+                    // all completed moves failed low, their values are only upper bounds and can not be compared
+                    main.bestRootMove = Move.NONE;
                 }
+                return value;
             }
-            return value;
+            main.aspirationFailures++;
+        }
+        return main.searchRoot(depth, bestMove, random, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public SearchStatistics lastSearch() {
+        return lastSearch;
+    }
+
+    @Override
+    public void close() {
+        stopPondering();
+        if (helperPool != null && !sharedPool) {
+            helperPool.shutdown();
         }
     }
 
     /**
-     * function to check for timeout
-     * @return false if code is allowed to continue, true if it should stop soon.
+     * sums up the counters of all searchers, after they are done.
      */
-    protected boolean shouldStop() {
-        return (System.currentTimeMillis() - startOfCurrentOperationTimestamp) > START_OF_CUTOFF_MS;
+    private SearchStatistics collectStatistics(final int depth, final long elapsedNs) {
+        long nodes = 0;
+        long leafEvaluations = 0;
+        long cutoffs = 0;
+        long firstMoveCutoffs = 0;
+        long repetitionDraws = 0;
+        long tableProbes = 0;
+        long tableHits = 0;
+        for (Searcher searcher : searchers) {
+            nodes += searcher.nodes;
+            leafEvaluations += searcher.leafEvaluations;
+            cutoffs += searcher.ordering.getCutoffs();
+            firstMoveCutoffs += searcher.ordering.getFirstMoveCutoffs();
+            repetitionDraws += searcher.repetitionDraws;
+            tableProbes += searcher.tableProbes;
+            tableHits += searcher.tableHits;
+        }
+        return new SearchStatistics(depth, nodes, elapsedNs, leafEvaluations,
+                cutoffs, firstMoveCutoffs, repetitionDraws, tableProbes, tableHits);
     }
 
     /**
-     * returns a move-String that transforms the "current" board into "next".
+     * starts pondering: all searchers search the current board, on which the opponent has to move,
+     * in the background without a time limit. Their results stay in the transposition table,
+     * so the next getBestMove finds the subtree of the actual reply already searched.
+     * Stopped by the next updateInternalBoard or getBestMove.
      */
-    protected String getMoveFromDiff(final Field[][] current, final Field[][] next) {
-        int oldX = -1;
-        int oldY = -1;
-        int newX = -1;
-        int newY = -1;
-        for (int y = 0; y < boardHeight; y++) {
-            for (int x = 0; x < boardWidth; x++) {
-                if (current[x][y] != Field.EMPTY && next[x][y] == Field.EMPTY) {
-                    // x,y is the field that stone moved away from
-                    oldX = x;
-                    oldY = y;
-                }
-                if (next[x][y] != Field.EMPTY && current[x][y] == Field.EMPTY) {
-                    // x,y is the new field
-                    newX = x;
-                    newY = y;
-                }
-            }
+    @Override
+    public void opponentThinking() {
+        if (!ponder || currentBoard == null || (solution != null && solution.covers(currentBoard))) {
+            return;
         }
-        if (newX == oldX) {
-            if (newY > oldY) {
-                return String.format("%d%dS", oldX+1, oldY+1);
-            } else {
-                return String.format("%d%dN", oldX+1, oldY+1);
+        stopPondering();
+        timeManager.startPondering();
+        stopSearch = false;
+        transpositionTable.newSearch();
+        final int[] carriedPv = carriedPv(minimizingColor);
+        final int trustedDepth = trustedDepth(probeTable(currentBoard));
+        for (int i = 0; i < searchers.length; i++) {
+            final Searcher searcher = searchers[i];
+            searcher.prepare();
+            searcher.ordering.setPreviousPv(carriedPv);
+            final int firstDepth = trustedDepth + (i % 2);
+            ponderTasks.add(SearchTask.submit(helperPool, SearchPool.PONDER, () -> searcher.ponder(firstDepth)));
+        }
+    }
+
+    /**
+     * cancels pondering, if it is running, and waits until all pondering searchers have returned.
+     */
+    private void stopPondering() {
+        if (ponderTasks.isEmpty()) {
+            return;
+        }
+        stopSearch = true;
+        for (SearchTask task : ponderTasks) {
+            task.finish();
+        }
+        ponderTasks.clear();
+        if (searchers[0].completedDepth > 0) {
+            rememberPv(searchers[0].ordering.getPreviousPv(), minimizingColor);
+        }
+        System.out.printf("pondered to depth %d.%n", searchers[0].completedDepth);
+    }
+
+    private void rememberPv(final int[] pv, final Field colorToMove) {
+        lastPv = pv;
+        lastPvRoot = new Bitboard(layout, currentBoard.white, currentBoard.black, currentBoard.hash);
+        lastPvColor = colorToMove;
+    }
+
+    /**
+     * follows lastPv from its root until it reaches currentBoard with colorToMove to move.
+     * @return the rest of lastPv from there, empty if the moves that were played left the PV.
+     */
+    private int[] carriedPv(final Field colorToMove) {
+        if (lastPvRoot == null) {
+            return new int[0];
+        }
+        final Bitboard board = new Bitboard(layout, lastPvRoot.white, lastPvRoot.black, lastPvRoot.hash);
+        Field color = lastPvColor;
+        for (int i = 0; i <= lastPv.length; i++) {
+            if (color == colorToMove && board.white == currentBoard.white && board.black == currentBoard.black) {
+                return Arrays.copyOfRange(lastPv, i, lastPv.length);
             }
-        } else {
-            if (newX > oldX) {
-                return String.format("%d%dE", oldX+1, oldY+1);
-            } else {
-                return String.format("%d%dW", oldX+1, oldY+1);
+            if (i < lastPv.length) {
+                board.makeMove(color, lastPv[i]);
+                color = (color == maximizingColor) ? minimizingColor : maximizingColor;
             }
         }
+        return new int[0];
     }
 
     /**
-     * generates all children of a node. all children are new objects.
+     * the previous search usually already searched currentBoard, as a node two plies below its root.
+     * If it got an exact score there, its subtree was searched with an open window and is in the table,
+     * so iterations up to that depth would only repeat that work and iterative deepening starts there.
+     * A bound is not trusted: the node was only searched until one move proved it good or bad enough,
+     * finding the best move at that depth costs as much as a new search.
+     * @param entry transposition table entry of currentBoard, 0 if there is none
+     * @return the depth to start iterative deepening with, at least START_SEARCH_DEPTH
      */
-    protected ArrayList<Field[][]> getChildren(final Field[][] node, final Field movableColor) {
-        ArrayList<Field[][]> list = new ArrayList<Field[][]>();
-        for (int y = 0; y < boardHeight; y++) {
-            for (int x = 0; x < boardWidth; x++) {
-                if (node[x][y] != movableColor) {
-                    continue;
-                }
-                /*
-                for each direction:
-                if target is within bounds and target is empty:
-                set field to empty
-                set target to color
-                add 
-                */
-                //WEST
-                if (x > 0 && node[x-1][y] == Field.EMPTY) {
-                    Field[][] child = Util.copyFieldArray(node);
-                    child[x][y] = Field.EMPTY;
-                    child[x-1][y] = movableColor;
-                    list.add(child);
-                }
-                //EAST
-                if (x + 1 < boardWidth && node[x+1][y] == Field.EMPTY) {
-                    Field[][] child = Util.copyFieldArray(node);
-                    child[x][y] = Field.EMPTY;
-                    child[x+1][y] = movableColor;
-                    list.add(child);
-                }
-                //NORTH
-                if (y > 0 && node[x][y-1] == Field.EMPTY) {
-                    Field[][] child = Util.copyFieldArray(node);
-                    child[x][y] = Field.EMPTY;
-                    child[x][y-1] = movableColor;
-                    list.add(child);
-                }
-                //SOUTH
-                if (y + 1 < boardHeight && node[x][y+1] == Field.EMPTY) {
-                    Field[][] child = Util.copyFieldArray(node);
-                    child[x][y] = Field.EMPTY;
-                    child[x][y+1] = movableColor;
-                    list.add(child);
-                }
-            }
+    private int trustedDepth(final long entry) {
+        if (entry == 0 || TranspositionTable.bound(entry) != TranspositionTable.BOUND_EXACT) {
+            return START_SEARCH_DEPTH;
         }
-        return list;
+        return Integer.max(START_SEARCH_DEPTH, Integer.min(TranspositionTable.depth(entry), maxDepth));
     }
 
     /**
-     * checks all available runs of 3 on the board.
-     * returns true if it finds one
+     * opens the solution file once per process: all agents of the process share it (see GameHost), it is read-only.
      */
-    protected boolean isTerminal(final Field[][] node) {
-        //vertical
-        //diagonal \
-        //diagonal /
-        for (int y = 0; y < boardHeight - 2; y++) {
-            for (int x = 0; x < boardWidth; x++) {
-                if (node[x][y] == Field.EMPTY) {
-                    continue;
-                }
-                if (node[x][y] == node[x][y+1] && node[x][y] == node[x][y+2]) {
-                    return true;
-                }
-                if (x+2 < boardWidth
-                        // x+2 < width means index x+2 is within the array
-                        && node[x][y] == node[x+1][y+1]
-                        && node[x][y] == node[x+2][y+2]) {
-                            return true;
-                }
-                if (x-2 > 0
-                        // x-2 > 0 means index x-2 is within the array
-                        && node[x][y] == node[x-1][y+1]
-                        && node[x][y] == node[x-2][y+2]) {
-                            return true;
-                }
+    private static synchronized Solution openSolution(final String file) {
+        final Path path = Paths.get(file).toAbsolutePath().normalize();
+        if (SOLUTIONS.containsKey(path)) {
+            return SOLUTIONS.get(path);
+        }
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            final Solution opened = Solution.open(path);
+            System.out.printf("using the solution in %s for %dx%d boards.%n", path, Solution.WIDTH, Solution.HEIGHT);
+            SOLUTIONS.put(path, opened);
+            return opened;
+        } catch (IOException ex) {
+            System.err.printf("can not use solution file: %s%n", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * picks the move with the best value in the solution: the fastest win, otherwise a draw, otherwise the slowest loss.
+     * The values of the children are from the point of view of the opponent.
+     */
+    private int solvedMove() {
+        final int[] moves = new int[4 * Long.bitCount(layout.onBoard)];
+        final int moveCount = currentBoard.generateMoves(maximizingColor, moves);
+        final Bitboard child = new Bitboard(layout, currentBoard.white, currentBoard.black, currentBoard.hash);
+        int bestMove = Move.NONE;
+        int bestRank = Integer.MIN_VALUE;
+        int bestValue = 0;
+        for (int i = 0; i < moveCount; i++) {
+            child.makeMove(maximizingColor, moves[i]);
+            final int value = solution.probe(child);
+            child.unmakeMove(maximizingColor, moves[i]);
+            // a lost child is a win for us, the sooner the better. A won child is a loss, the later the better.
+            final int rank = value < 0 ? Byte.MAX_VALUE + 1 + value : value > 0 ? value - Byte.MAX_VALUE - 1 : 0;
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestMove = moves[i];
+                bestValue = value;
             }
         }
+        if (bestValue < 0) {
+            System.out.printf("solved: win in %d plies.%n", -bestValue);
+        } else if (bestValue > 0) {
+            System.out.printf("solved: loss in %d plies.%n", bestValue + 1);
+        } else {
+            System.out.printf("solved: draw.%n");
+        }
+        return bestMove;
+    }
 
-        //horizontal
-        for (int y = 0; y < boardHeight; y++) {
-            for (int x = 0; x < boardWidth - 2; x++) {
-                if (node[x][y] == Field.EMPTY) {
-                    continue;
-                }
-                if (node[x][y] == node[x+1][y] && node[x][y] == node[x+2][y]) {
-                    return true;
-                }
+    /**
+     * moves the given move to the front of moves, the other moves keep their order.
+     */
+    private static void moveToFront(final int[] moves, final int moveCount, final int move) {
+        if (move == Move.NONE) {
+            return;
+        }
+        for (int i = 1; i < moveCount; i++) {
+            if (moves[i] == move) {
+                System.arraycopy(moves, 0, moves, 1, i);
+                moves[0] = move;
+                return;
             }
         }
-        return false;
+    }
+
+    /**
+     * symmetric boards have the same value, so they share one transposition table entry:
+     * with symmetricTable, a board is stored under its canonical hash (see Bitboard#canonicalSymmetry)
+     * and the move of the entry is the move on the board transformed by that symmetry.
+     * Only the table works like this, the repetition rule is about the exact board.
+     * @return the symmetry that maps node to the board that is stored in the table
+     */
+    private int tableSymmetry(final Bitboard node) {
+        return symmetricTable ? node.canonicalSymmetry() : 0;
+    }
+
+    private long probeTable(final Bitboard node) {
+        return transpositionTable.probe(node.symmetricHashes[tableSymmetry(node)]);
+    }
+
+    /**
+     * @return the move of the table entry of node, on node. Every symmetry is its own inverse.
+     */
+    private int tableMove(final Bitboard node, final long entry) {
+        return layout.transformMove(tableSymmetry(node), TranspositionTable.move(entry));
+    }
+
+    /**
+     * win/loss scores are weighted with (SCORE_FACTOR_FOR_DEPTH_1 - ply of the terminal node).
+     * The ply of the terminal node is the ply of the stored node plus the distance to the terminal node,
+     * so the ply of the stored node is added here, making the stored score the one of a search rooted at that node.
+     * scoreFromTable subtracts the ply of the node that reads the entry, which gives exactly the score
+     * a search from there would have returned for the same terminal node, on any path and with any extensions.
+     */
+    private int scoreToTable(final int score, final int ply) {
+        if (score > SCORE_SAFE_WIN) {
+            return score + ply * SCORE_SAFE_WIN;
+        } else if (score < -SCORE_SAFE_WIN) {
+            return score - ply * SCORE_SAFE_WIN;
+        }
+        return score;
+    }
+
+    private int scoreFromTable(final int score, final int ply) {
+        if (score > SCORE_SAFE_WIN) {
+            return score - ply * SCORE_SAFE_WIN;
+        } else if (score < -SCORE_SAFE_WIN) {
+            return score + ply * SCORE_SAFE_WIN;
+        }
+        return score;
+    }
+
+    /**
+     * function to check for timeout. Only reads the flag, the clock is polled by Searcher#countNode.
+     * @return false if code is allowed to continue, true if it should stop soon.
+     */
+    protected boolean shouldStop() {
+        return stopSearch;
+    }
+
+    /**
+     * a side that can not move has lost, the search and MctsAi score such a node as a loss.
+     * At the root there is no move to send, so getBestMove of both agents fails instead.
+     * @throws IllegalStateException if the color has no legal move on the board
+     */
+    static void checkHasMove(final Bitboard board, final Field color) {
+        if (!board.hasMove(color)) {
+            throw new IllegalStateException(
+                    String.format("%s has no legal move and loses", color.name().toLowerCase()));
+        }
+    }
+
+    /**
+     * returns the move-String ("<x><y><dir>", server indices) of a move.
+     */
+    protected String getMoveString(final int move) {
+        return Move.toServerString(layout, move);
+    }
+
+    /**
+     * returns true if one of the colors has a run of 3 on the board.
+     * Reads the runs kept up to date by Bitboard#makeMove, nothing is scanned here.
+     * See Bitboard#isWinningMove for the check of a single move.
+     */
+    protected boolean isTerminal(final Bitboard node) {
+        return node.isTerminal();
     }
 
     /**
@@ -431,66 +704,488 @@ public class Ai implements Agent {
      * For each direction (vertical, horizontal, 2x diagonal):
      * For every field check if there is xxx starting here: safe win
      * For every field check if there is xx? or x?x (run of 2) starting here
+     * Fields outside of the board never count as x, so xx? is also counted at the border.
+     * The counting is done by Bitboard#makeMove, see Bitboard#countRuns.
      * 
-     * @param input_node
-     */
-    protected int heuristic(final Field[][] input_node) {
-        //create node with margin 2, to be able to run checks with caring about board borders.
-        //margin is initialized with null, so checking with == is safe
-        for (int y = 0; y < boardHeight; y++) {
-            for (int x = 0; x < boardWidth; x++) {
-                nodeWithMargin[x+2][y+2] = input_node[x][y];
+     * @param node
+     */
+    protected int heuristic(final Bitboard node) {
+        final int maxRuns = node.runs(maximizingColor);
+        if (maxRuns == Bitboard.RUN_OF_THREE) {
+            return SCORE_SAFE_WIN;
+        }
+        final int minRuns = node.runs(minimizingColor);
+        if (minRuns == Bitboard.RUN_OF_THREE) {
+            return -SCORE_SAFE_WIN;
+        }
+        return (maxRuns - minRuns) * SCORE_FOR_RUNS[2];
+    }
+
+    /**
+     * state of one search thread: its own copy of the board and of the repetition history,
+     * its move buffers and its move ordering. Only the transposition table is shared with other searchers.
+     */
+    class Searcher {
+        /**
+         * copy of currentBoard. The search applies its moves to this object in place and reverts them on return.
+         */
+        final Bitboard node;
+
+        /**
+         * copy of the game history (see Ai#stateCounter) plus the current search path.
+         * THIS OBJECT IS MODIFIED DURING A RUN ON MINIMAX, BUT SHOULD RE-ENTER IT'S OLD STATE ON RETURN.
+         */
+        final RepetitionCounter stateCounter = new RepetitionCounter();
+
+        /**
+         * number of nodes since prepare that were scored as a draw by threefold repetition.
+         * a subtree in which this counter changed depends on the path that led to it, so its result is not stored.
+         */
+        int repetitionDraws;
+
+        /**
+         * one move buffer per ply (distance from the root), filled by Bitboard#generateMoves.
+         * allocated once per board size, so the search itself does not allocate.
+         */
+        final int[][] moveBuffers;
+
+        /**
+         * PV, killer and history move ordering.
+         */
+        final MoveOrdering ordering;
+
+        /**
+         * true while minimax is on the PV of the previous iteration, i.e. every move from the root so far was a PV move.
+         */
+        boolean followPv;
+
+        int rootMoveCount;
+
+        /**
+         * number of root moves that searchRoot completed in its last call.
+         */
+        int searchedRootMoves;
+
+        /**
+         * best root move of the last call of searchRoot.
+         */
+        int bestRootMove;
+
+        /**
+         * deepest completed iteration of ponder.
+         */
+        int completedDepth;
+
+        /**
+         * nodes visited by minimax since prepare.
+         */
+        long nodes;
+
+        /**
+         * since prepare: nodes scored by the heuristic, lookups in the transposition table and lookups that found an entry.
+         */
+        long leafEvaluations;
+        long tableProbes;
+        long tableHits;
+
+        /**
+         * root searches since prepare whose score fell outside of the aspiration window.
+         */
+        int aspirationFailures;
+
+        /**
+         * selective search since prepare: reduced moves, reduced moves that had to be searched again, extended moves.
+         */
+        long reductions;
+        long reductionReSearches;
+        long extensions;
+
+        /**
+         * extensions stop where the leaves would be deeper than this ply, set per iteration.
+         */
+        int plyLimit;
+
+        /**
+         * set when a helper gives its thread of the shared pool to a move that is due, see countNode.
+         */
+        boolean yielded;
+
+        Searcher() {
+            node = new Bitboard(layout, 0, 0);
+            // at most 4 moves per stone, at most one stone per field
+            moveBuffers = new int[MAX_SEARCH_DEPTH + 1][4 * Long.bitCount(layout.onBoard)];
+            ordering = new MoveOrdering(moveBuffers.length, moveBuffers[0].length);
+        }
+
+        /**
+         * copies the current game state, called before every search.
+         */
+        void prepare() {
+            node.copyFrom(currentBoard);
+            stateCounter.copyFrom(Ai.this.stateCounter);
+            rootMoveCount = node.generateMoves(maximizingColor, moveBuffers[0]);
+            ordering.newSearch();
+            nodes = 0;
+            leafEvaluations = 0;
+            tableProbes = 0;
+            tableHits = 0;
+            repetitionDraws = 0;
+            aspirationFailures = 0;
+            reductions = 0;
+            reductionReSearches = 0;
+            extensions = 0;
+            yielded = false;
+        }
+
+        /**
+         * counts a node and polls the clock every POLL_INTERVAL nodes.
+         * If a move of another agent waits for a thread of the pool (see SearchPool), pondering stops there,
+         * and so does a helper on the shared pool: only the main searcher decides the move.
+         * @return true if the search has to stop
+         */
+        private boolean countNode() {
+            if ((++nodes & (POLL_INTERVAL - 1)) == 0) {
+                if (timeManager.hardDeadlinePassed()
+                        || (timeManager.isPondering() && helperPool.mainSearchWaiting())) {
+                    stopSearch = true;
+                } else if (sharedPool && this != searchers[0] && helperPool.mainSearchWaiting()) {
+                    yielded = true;
+                }
+            }
+            return stopped();
+        }
+
+        /**
+         * @return true if this searcher has to stop, see Ai#shouldStop
+         */
+        boolean stopped() {
+            return stopSearch || yielded;
+        }
+
+        boolean isRootMove(final int move) {
+            for (int i = 0; i < rootMoveCount; i++) {
+                if (moveBuffers[0][i] == move) {
+                    return move != Move.NONE;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * iterative deepening of a helper searcher. The results only matter through the transposition table.
+         */
+        void iterativeDeepening(final int firstDepth) {
+            int previousBest = Move.NONE;
+            for (int depth = firstDepth; depth <= maxDepth; depth++) {
+                searchRoot(depth, previousBest, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                if (stopped()) {
+                    return;
+                }
+                ordering.completeIteration();
+                previousBest = bestRootMove;
+            }
+        }
+
+        /**
+         * iterative deepening on node with the opponent (MIN) to move, until stopSearch is set.
+         * Every iteration searches all replies of the opponent, so it does not matter which one is played.
+         */
+        void ponder(final int firstDepth) {
+            completedDepth = 0;
+            for (int depth = firstDepth; depth <= MAX_SEARCH_DEPTH; depth++) {
+                plyLimit = Integer.min(MAX_SEARCH_DEPTH, 2 * depth);
+                minimax(node, 0, depth, Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+                if (stopped()) {
+                    return;
+                }
+                ordering.completeIteration();
+                completedDepth = depth;
+            }
+        }
+
+        /**
+         * rewritten MAX part of minimax,
+         * for getting the move rather than its value.
+         * includes alpha-pruning, beta is irrelevant because we are maxing.
+         * The best move is stored in bestRootMove.
+         * @param previousBest best move of the previous iteration, it is searched first
+         * @param random picks randomly among equally good moves, null to always keep the first one.
+         *        A child that is only as good as alpha fails low and its value is only an upper bound,
+         *        so with random the children after the first are searched with alpha - 1: a tie is then exact.
+         * @param alpha,beta search window, the result is only exact if it lies inside of it
+         * @return value of the best move
+         */
+        int searchRoot(final int depth, final int previousBest, final SecureRandom random, int alpha, final int beta) {
+            final int[] rootMoves = moveBuffers[0];
+            int bestValueForThisDepth = Integer.MIN_VALUE;
+            bestRootMove = Move.NONE;
+            searchedRootMoves = 0;
+            // forcing lines may be searched up to twice as deep as the iteration
+            plyLimit = Integer.min(MAX_SEARCH_DEPTH, 2 * depth);
+            // the best move of the previous iteration is searched first, in the first iteration the carried PV move
+            moveToFront(rootMoves, rootMoveCount, previousBest != Move.NONE ? previousBest : ordering.previousPvMove(0));
+            for (int i = 0; i < rootMoveCount; i++) {
+                final int move = rootMoves[i];
+                followPv = (i == 0 && move == ordering.previousPvMove(0));
+                node.makeMove(maximizingColor, move);
+                stateCounter.increase(node.hash);
+                final int childAlpha = (random != null && i > 0 && alpha > Integer.MIN_VALUE) ? alpha - 1 : alpha;
+                int mm = searchChild(1, depth - 1, childAlpha, beta, false, i);
+                stateCounter.decrease(node.hash);
+                node.unmakeMove(maximizingColor, move);
+                if (stopped()) {
+                    break;
+                }
+                searchedRootMoves++;
+                if (mm > bestValueForThisDepth) {
+                    // if current child is better than best known: replace.
+                    bestValueForThisDepth = mm;
+                    bestRootMove = move;
+                    ordering.updatePv(0, move);
+                } else if (mm == bestValueForThisDepth && mm > childAlpha
+                        && random != null && random.nextBoolean()) {
+                    // if current child is exactly as good as best known: replace randomly.
+                    bestRootMove = move;
+                    ordering.updatePv(0, move);
+                }
+                alpha = Integer.max(alpha, bestValueForThisDepth);
+                if (bestValueForThisDepth >= beta) {
+                    break;
+                }
             }
+            return bestValueForThisDepth;
         }
-        int rating = 0;
-        /*
-        looping from 2 to len+2 exclusive, i.e. every field of the original board.
-        the code is checking lots of ?-null-null runs, but that saves a lot of branching and reiteration.
-        furthermore, most of the ?-null-null runs are skipped because they are EMPTY-null-null
-        */
-        for (int y = 2; y < boardHeight + 2; y++) {
-            for (int x = 2; x < boardWidth + 2; x++) {
-                if (nodeWithMargin[x][y] == Field.EMPTY) {
-                    continue;
+
+        /**
+         * searches the child that has just been made on node.
+         * With pvs, every child after the first one (moveIndex > 0) is expected to be worse than the best one so far.
+         * That is tested with a null window, which cuts off much more. Only if the child turns out to be better,
+         * it is searched again with the real window to get its exact value.
+         * @param maximizingPlayer true if MAX is to move in the child
+         */
+        private int searchChild(final int ply, final int depth, final int alpha, final int beta,
+                final boolean maximizingPlayer, final int moveIndex) {
+            if (!pvs || moveIndex == 0) {
+                return minimax(node, ply, depth, alpha, beta, maximizingPlayer);
+            }
+            if (maximizingPlayer) {
+                // MIN moved into the child: test whether it is not better for MIN than beta
+                final int value = minimax(node, ply, depth, beta - 1, beta, true);
+                if (value > alpha && value < beta) {
+                    return minimax(node, ply, depth, alpha, beta, true);
                 }
-                int runLength; //count of stones in the interesting three fields
-                boolean isMaxPlayer = nodeWithMargin[x][y] == maximizingColor;
-                //vertical score
-                runLength = 1 + ((nodeWithMargin[x][y] == nodeWithMargin[x][y+1])?1:0) + ((nodeWithMargin[x][y] == nodeWithMargin[x][y+2])?1:0);
-                if (runLength == 3) {
-                    return isMaxPlayer ? SCORE_SAFE_WIN : -SCORE_SAFE_WIN;
+                return value;
+            }
+            // MAX moved into the child: test whether it is not better for MAX than alpha
+            final int value = minimax(node, ply, depth, alpha, alpha + 1, false);
+            if (value > alpha && value < beta) {
+                return minimax(node, ply, depth, alpha, beta, false);
+            }
+            return value;
+        }
+
+        /**
+         * searches the child that the move at moveIndex has just made on node, one ply less deep than its parent unless:
+         * - the move is forcing, i.e. it blocks all threats of the opponent or creates a threat of the mover:
+         *   with threatExtensions, it is searched as deep as its parent, as long as that stays within plyLimit.
+         * - it is late, i.e. after the first lateMoveReductions moves of the ordered list, and the position is quiet
+         *   (no threats of the opponent, not forcing): it is searched one more ply less deep, with a null window.
+         *   If it turns out to be better than the best move so far after all, the reduced search was wrong
+         *   and it is searched again normally.
+         * @param maximizingPlayer true if MAX made the move, i.e. is to move in the parent
+         * @param opponentThreats threats of the player that did not make the move, before the move
+         * @param moverHadThreats true if the player that made the move had threats before the move
+         */
+        private int searchMove(final int ply, final int depth, final int alpha, final int beta,
+                final boolean maximizingPlayer, final int moveIndex,
+                final long opponentThreats, final boolean moverHadThreats) {
+            int childDepth = depth - 1;
+            if (threatExtensions || lateMoveReductions > 0) {
+                final Field mover = maximizingPlayer ? maximizingColor : minimizingColor;
+                final Field opponent = maximizingPlayer ? minimizingColor : maximizingColor;
+                final boolean forcing = (opponentThreats != 0 && node.threats(opponent) == 0)
+                        || (!moverHadThreats && node.threats(mover) != 0);
+                if (forcing && threatExtensions && ply + 1 + depth <= plyLimit) {
+                    extensions++;
+                    childDepth = depth;
+                } else if (!forcing && opponentThreats == 0 && lateMoveReductions > 0
+                        && moveIndex >= lateMoveReductions && depth >= REDUCTION_MIN_DEPTH) {
+                    reductions++;
+                    if (maximizingPlayer) {
+                        final int value = minimax(node, ply + 1, depth - 2, alpha, alpha + 1, false);
+                        if (value <= alpha) {
+                            return value;
+                        }
+                    } else {
+                        final int value = minimax(node, ply + 1, depth - 2, beta - 1, beta, true);
+                        if (value >= beta) {
+                            return value;
+                        }
+                    }
+                    reductionReSearches++;
                 }
-                rating += isMaxPlayer ? SCORE_FOR_RUNS[runLength] : -SCORE_FOR_RUNS[runLength];
-                //diagonal \ score
-                runLength = 1 + ((nodeWithMargin[x][y] == nodeWithMargin[x+1][y+1])?1:0) + ((nodeWithMargin[x][y] == nodeWithMargin[x+2][y+2])?1:0);
-                if (runLength == 3) {
-                    return isMaxPlayer ? SCORE_SAFE_WIN : -SCORE_SAFE_WIN;
+            }
+            return searchChild(ply + 1, childDepth, alpha, beta, !maximizingPlayer, moveIndex);
+        }
+
+        /**
+         * minimax with alpha-beta-pruning and some other (documented) tweaks
+         * https://en.wikipedia.org/wiki/Minimax#Pseudocode
+         * https://en.wikipedia.org/wiki/Alpha%E2%80%93beta_pruning#Pseudocode (soft-fail)
+         * MAX player is this agent. The opponent is MIN.
+         * the higher the return value, the better for this agent.
+         * The moves of the search are made and unmade on node, it has the same state again on return.
+         * @param ply distance of node from the root, selects the move buffer
+         */
+        int minimax(Bitboard node, int ply, int depth, int alpha, int beta, boolean maximizingPlayer) {
+            ordering.clearPv(ply);
+            if (countNode()) {
+                return 0;
+            }
+            // if this state leads to a direct draw, return utility of 0
+            if (stateCounter.get(node.hash) == 3) {
+                repetitionDraws++;
+                return 0;
+            }
+            // terminal state: win/loss score weighted by distance.
+            if (isTerminal(node)) {
+                /*
+                weighting to prefer early results over late results.
+                the distance from the current game state is the param "ply". The remaining depth is no measure of it,
+                extensions and reductions change it without changing the distance.
+                */
+
+                /*
+                we can only enter a terminal state when the player who's turn it is wins
+                if we are in a terminal state and is MAX's turn, we know MIN has just won. And the other way around.
+                */
+
+                return /* weight */       (SCORE_FACTOR_FOR_DEPTH_1 - ply) *
+                       /* min/max score*/ (maximizingPlayer?-SCORE_SAFE_WIN:SCORE_SAFE_WIN);
+            }
+            // depth cutoff
+            if (depth == 0) {
+                leafEvaluations++;
+                return heuristic(node);
+            }
+            // transposition table: use a stored result if it was searched at least as deep and fits the window.
+            int tableMove = Move.NONE;
+            final long entry = probeTable(node);
+            tableProbes++;
+            if (entry != 0) {
+                tableHits++;
+                tableMove = tableMove(node, entry);
+                if (TranspositionTable.depth(entry) >= depth) {
+                    final int tableValue = scoreFromTable(TranspositionTable.score(entry), ply);
+                    final int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.BOUND_EXACT
+                            || (bound == TranspositionTable.BOUND_LOWER && tableValue >= beta)
+                            || (bound == TranspositionTable.BOUND_UPPER && tableValue <= alpha)) {
+                        return tableValue;
+                    }
                 }
-                rating += isMaxPlayer ? SCORE_FOR_RUNS[runLength] : -SCORE_FOR_RUNS[runLength];
-                //diagonal / score
-                runLength = 1 + ((nodeWithMargin[x][y] == nodeWithMargin[x-1][y+1])?1:0) + ((nodeWithMargin[x][y] == nodeWithMargin[x-2][y+2])?1:0);
-                if (runLength == 3) {
-                    return isMaxPlayer ? SCORE_SAFE_WIN : -SCORE_SAFE_WIN;
+            }
+            final int alphaAtEntry = alpha;
+            final int betaAtEntry = beta;
+            final int repetitionDrawsAtEntry = repetitionDraws;
+            final int[] moves = moveBuffers[ply];
+            final int pvMove = followPv ? ordering.previousPvMove(ply) : Move.NONE;
+            int bestMove = Move.NONE;
+            // threats before the move, for searchMove
+            final boolean selective = threatExtensions || lateMoveReductions > 0;
+            final long whiteThreats = selective ? node.threats(Field.WHITE) : 0;
+            final long blackThreats = selective ? node.threats(Field.BLACK) : 0;
+            if (maximizingPlayer) {
+                final long ownThreats = maximizingColor == Field.WHITE ? whiteThreats : blackThreats;
+                final long opponentThreats = maximizingColor == Field.WHITE ? blackThreats : whiteThreats;
+                final int moveCount = node.generateMoves(maximizingColor, moves);
+                if (moveCount == 0) {
+                    // a side that can not move loses, see checkHasMove
+                    return (SCORE_FACTOR_FOR_DEPTH_1 - ply) * -SCORE_SAFE_WIN;
                 }
-                rating += isMaxPlayer ? SCORE_FOR_RUNS[runLength] : -SCORE_FOR_RUNS[runLength];
-                //horizontal score
-                runLength = 1 + ((nodeWithMargin[x][y] == nodeWithMargin[x+1][y])?1:0) + ((nodeWithMargin[x][y] == nodeWithMargin[x+2][y])?1:0);
-                if (runLength == 3) {
-                    return isMaxPlayer ? SCORE_SAFE_WIN : -SCORE_SAFE_WIN;
+                ordering.scoreMoves(ply, maximizingColor, moves, moveCount, pvMove, tableMove);
+                int value = Integer.MIN_VALUE;
+                for (int i = 0; i < moveCount; i++) {
+                    ordering.pickNext(ply, moves, i, moveCount);
+                    // only the first child of a PV node can be on the PV
+                    followPv = followPv && i == 0 && moves[i] == pvMove;
+                    node.makeMove(maximizingColor, moves[i]);
+                    stateCounter.increase(node.hash);
+                    int childValue = searchMove(ply, depth, alpha, beta, true, i,
+                            opponentThreats, ownThreats != 0);
+                    stateCounter.decrease(node.hash);
+                    node.unmakeMove(maximizingColor, moves[i]);
+                    if (childValue > value) {
+                        value = childValue; // replacement for max function
+                        bestMove = moves[i];
+                        ordering.updatePv(ply, bestMove);
+                    }
+                    alpha = Integer.max(alpha, value);
+                    if (value >= beta) {
+                        ordering.cutoff(ply, maximizingColor, moves[i], depth, i);
+                        break;
+                    }
+                }
+                storeInTable(node, ply, bestMove, depth, value, alphaAtEntry, betaAtEntry, repetitionDrawsAtEntry);
+                return value;
+            } else {
+                final long ownThreats = minimizingColor == Field.WHITE ? whiteThreats : blackThreats;
+                final long opponentThreats = minimizingColor == Field.WHITE ? blackThreats : whiteThreats;
+                final int moveCount = node.generateMoves(minimizingColor, moves);
+                if (moveCount == 0) {
+                    return (SCORE_FACTOR_FOR_DEPTH_1 - ply) * SCORE_SAFE_WIN;
                 }
-                rating += isMaxPlayer ? SCORE_FOR_RUNS[runLength] : -SCORE_FOR_RUNS[runLength];
+                ordering.scoreMoves(ply, minimizingColor, moves, moveCount, pvMove, tableMove);
+                int value = Integer.MAX_VALUE;
+                for (int i = 0; i < moveCount; i++) {
+                    ordering.pickNext(ply, moves, i, moveCount);
+                    // only the first child of a PV node can be on the PV
+                    followPv = followPv && i == 0 && moves[i] == pvMove;
+                    node.makeMove(minimizingColor, moves[i]);
+                    stateCounter.increase(node.hash);
+                    int childValue = searchMove(ply, depth, alpha, beta, false, i,
+                            opponentThreats, ownThreats != 0);
+                    stateCounter.decrease(node.hash);
+                    node.unmakeMove(minimizingColor, moves[i]);
+                    if (childValue < value) {
+                        value = childValue; // replacement for min function
+                        bestMove = moves[i];
+                        ordering.updatePv(ply, bestMove);
+                    }
+                    beta = Integer.min(beta, value);
+                    if (value <= alpha) {
+                        ordering.cutoff(ply, minimizingColor, moves[i], depth, i);
+                        break;
+                    }
+                }
+                storeInTable(node, ply, bestMove, depth, value, alphaAtEntry, betaAtEntry, repetitionDrawsAtEntry);
+                return value;
             }
         }
-        return rating;
-    }
 
-    private String serializeNode(Field[][] node) {
-        String s = "";
-        for (int y = 0; y < boardHeight; y++) {
-            for (int x = 0; x < boardWidth; x++) {
-                s += node[x][y].getChar();
+        /**
+         * stores the result of a completely searched node.
+         * Not stored are results of an interrupted search, nodes without children (value stays at +-infinity)
+         * and results that depend on a repetition draw somewhere in the subtree, because those depend on the path.
+         * @param alpha alpha at entry of the node
+         * @param beta beta at entry of the node
+         */
+        private void storeInTable(final Bitboard node, final int ply, final int bestMove, final int depth,
+                final int value, final int alpha, final int beta, final int repetitionDrawsAtEntry) {
+            if (bestMove == Move.NONE || repetitionDraws != repetitionDrawsAtEntry || stopped()) {
+                return;
+            }
+            final int bound;
+            if (value <= alpha) {
+                bound = TranspositionTable.BOUND_UPPER;
+            } else if (value >= beta) {
+                bound = TranspositionTable.BOUND_LOWER;
+            } else {
+                bound = TranspositionTable.BOUND_EXACT;
             }
+            final int symmetry = tableSymmetry(node);
+            transpositionTable.store(node.symmetricHashes[symmetry], depth, scoreToTable(value, ply), bound,
+                    layout.transformMove(symmetry, bestMove));
         }
-        return s;
     }
 }
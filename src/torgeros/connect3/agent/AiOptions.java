@@ -0,0 +1,185 @@
+package torgeros.connect3.agent;
+
+/**
+ * tuning options of the Ai and the MctsAi, set on the command line as "name=value".
+ * The defaults are used when an option is not given.
+ */
+public class AiOptions {
+    /**
+     * memory budget of the transposition table in megabytes.
+     */
+    public int transpositionTableMb = 64;
+
+    /**
+     * time for one move in milliseconds, see TimeManager.
+     * - ping to server is ~.15 ms.
+     * - sucessfully topping everything once the timer ha run out: eval gives ~1 ms.
+     */
+    public int moveTimeMs = 9900;
+
+    public static final String SEARCH_ALPHA_BETA = "alphabeta";
+    public static final String SEARCH_PVS = "pvs";
+
+    /**
+     * search algorithm, SEARCH_ALPHA_BETA or SEARCH_PVS (principal variation search).
+     * stays SEARCH_ALPHA_BETA until a Tournament shows that pvs plays better.
+     */
+    public String search = SEARCH_ALPHA_BETA;
+
+    /**
+     * half width of the aspiration window of the root search, 0 to always search with a full window.
+     * in units of the heuristic, one run of two is worth 50. Off by default, like pvs.
+     */
+    public int aspirationWindow = 0;
+
+    /**
+     * late move reductions: moves after this many are searched one ply less deep in quiet positions, 0 for none.
+     * off by default: the gain measured so far is within noise, and the threat checks cost time in every node.
+     */
+    public int lateMoveReductions = 0;
+
+    /**
+     * search moves that create or block a threat to win one ply deeper.
+     * off by default, like lateMoveReductions.
+     */
+    public boolean threatExtensions = false;
+
+    /**
+     * share transposition table entries between boards that are mirror images of each other.
+     */
+    public boolean symmetricTable = true;
+
+    /**
+     * MctsAi: weight of the exploration term of UCT, relative to an average reward between 0 (loss) and 1 (win).
+     */
+    public double explorationConstant = 1.0;
+
+    /**
+     * MctsAi: memory budget of the search tree in megabytes. Once it is used up, leaves are no longer expanded.
+     */
+    public int treeMb = 256;
+
+    /**
+     * MctsAi: a random playout that has not ended after this many plies counts as a draw.
+     */
+    public int playoutPlies = 100;
+
+    /**
+     * number of threads that search in parallel (Lazy SMP, see Ai#searchers; playouts of MctsAi).
+     */
+    public int threads = 1;
+
+    /**
+     * iterative deepening stops after this depth even if there is time left, e.g. to measure time to depth.
+     */
+    public int maxDepth = Integer.MAX_VALUE;
+
+    /**
+     * keep searching while the opponent is thinking, see Ai#opponentThinking().
+     */
+    public boolean ponder = false;
+
+    /**
+     * file written by "Ternary solve", used on 5x4 boards if it exists, see Solution. null for none.
+     */
+    public String solutionFile = "solution-5x4.bin";
+
+    /**
+     * pool for all searches of the agent, shared by the agents of all games in a GameHost, see SearchPool.
+     * null: an agent searches on the calling thread and starts a pool of its own if it needs helper threads.
+     * Not a command line option.
+     */
+    public SearchPool pool = null;
+
+    /**
+     * sets one option from its command line name and value.
+     * @throws IllegalArgumentException for unknown names and invalid values
+     */
+    public void set(final String name, final String value) {
+        switch (name) {
+            case "tt-mb":
+                transpositionTableMb = parseInt(name, value, 1, 1 << 14);
+                break;
+            case "move-time":
+                moveTimeMs = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "search":
+                if (!value.equals(SEARCH_ALPHA_BETA) && !value.equals(SEARCH_PVS)) {
+                    throw new IllegalArgumentException(String.format("option %s needs %s or %s, got \"%s\"",
+                            name, SEARCH_ALPHA_BETA, SEARCH_PVS, value));
+                }
+                search = value;
+                break;
+            case "aspiration":
+                aspirationWindow = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "lmr":
+                lateMoveReductions = parseInt(name, value, 0, Integer.MAX_VALUE);
+                break;
+            case "threat-extensions":
+                threatExtensions = parseBoolean(name, value);
+                break;
+            case "symmetry":
+                symmetricTable = parseBoolean(name, value);
+                break;
+            case "uct-c":
+                explorationConstant = parseDouble(name, value, 0, 100);
+                break;
+            case "tree-mb":
+                treeMb = parseInt(name, value, 1, 1 << 16);
+                break;
+            case "playout-plies":
+                playoutPlies = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "threads":
+                threads = parseInt(name, value, 1, 1024);
+                break;
+            case "max-depth":
+                maxDepth = parseInt(name, value, 1, Integer.MAX_VALUE);
+                break;
+            case "ponder":
+                ponder = parseBoolean(name, value);
+                break;
+            case "solution":
+                solutionFile = value;
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("unknown option \"%s\"", name));
+        }
+    }
+
+    private static boolean parseBoolean(final String name, final String value) {
+        if (value.equals("true")) {
+            return true;
+        } else if (value.equals("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException(String.format("option %s needs true or false, got \"%s\"", name, value));
+    }
+
+    private static double parseDouble(final String name, final String value, final double min, final double max) {
+        final double parsed;
+        try {
+            parsed = Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("option %s needs a number, got \"%s\"", name, value));
+        }
+        if (!(parsed >= min && parsed <= max)) {
+            throw new IllegalArgumentException(String.format("option %s has to be in %s..%s", name, min, max));
+        }
+        return parsed;
+    }
+
+    private static int parseInt(final String name, final String value, final int min, final int max) {
+        final int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("option %s needs a number, got \"%s\"", name, value));
+        }
+        if (parsed < min || parsed > max) {
+            throw new IllegalArgumentException(String.format("option %s has to be in %d..%d", name, min, max));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,294 @@
+package torgeros.connect3.agent;
+
+import torgeros.connect3.Board;
+import torgeros.connect3.Board.Field;
+
+/**
+ * game state as used by the search: one long per color, one bit per field.
+ * The meaning of the bits is defined by the BitboardLayout, which is shared by all nodes of one game.
+ *
+ * Besides the hash and the hashes of the symmetric boards, makeMove also keeps the number of runs of two
+ * of both colors up to date (see countRuns), so the heuristic and the terminal test only read fields.
+ */
+class Bitboard {
+    final BitboardLayout layout;
+    long white;
+    long black;
+    /**
+     * Zobrist hash of white and black, see Zobrist.
+     */
+    long hash;
+    /**
+     * per symmetry of the layout (see BitboardLayout#SYMMETRIES): the Zobrist hash of the transformed board.
+     * symmetricHashes[0] is hash. Symmetric boards have the same set of hashes, see canonicalSymmetry.
+     */
+    final long[] symmetricHashes = new long[BitboardLayout.SYMMETRIES];
+    /**
+     * number of xx? and x?x windows of each color, RUN_OF_THREE if the color has three in a row.
+     */
+    int whiteRuns;
+    int blackRuns;
+
+    public static final int RUN_OF_THREE = -1;
+
+    public Bitboard(final BitboardLayout layout, long white, long black) {
+        this(layout, white, black, Zobrist.hash(white, black));
+    }
+
+    /**
+     * @param hash has to be the Zobrist hash of white and black, e.g. updated incrementally from the parent.
+     */
+    public Bitboard(final BitboardLayout layout, long white, long black, long hash) {
+        this.layout = layout;
+        this.white = white;
+        this.black = black;
+        this.hash = hash;
+        symmetricHashes[0] = hash;
+        for (int s = 1; s < BitboardLayout.SYMMETRIES; s++) {
+            symmetricHashes[s] = Zobrist.hash(layout.transform(s, white), layout.transform(s, black));
+        }
+        this.whiteRuns = countRuns(layout, white);
+        this.blackRuns = countRuns(layout, black);
+    }
+
+    /**
+     * makes this a copy of other, which has to use the same layout.
+     */
+    public void copyFrom(final Bitboard other) {
+        white = other.white;
+        black = other.black;
+        hash = other.hash;
+        System.arraycopy(other.symmetricHashes, 0, symmetricHashes, 0, symmetricHashes.length);
+        whiteRuns = other.whiteRuns;
+        blackRuns = other.blackRuns;
+    }
+
+    /**
+     * converts a Board (server indices starting at 1,1) into a bitboard.
+     */
+    public static Bitboard fromBoard(final Board board, final BitboardLayout layout) {
+        long white = 0;
+        long black = 0;
+        for (int y = 1; y <= board.height; y++) {
+            for (int x = 1; x <= board.width; x++) {
+                if (board.get(x, y) == Field.WHITE) {
+                    white |= layout.bit(x-1, y-1);
+                } else if (board.get(x, y) == Field.BLACK) {
+                    black |= layout.bit(x-1, y-1);
+                }
+            }
+        }
+        return new Bitboard(layout, white, black);
+    }
+
+    public long get(final Field color) {
+        return color == Field.WHITE ? white : black;
+    }
+
+    /**
+     * @return number of runs of two of the given color, RUN_OF_THREE if it has three in a row.
+     */
+    public int runs(final Field color) {
+        return color == Field.WHITE ? whiteRuns : blackRuns;
+    }
+
+    /**
+     * @return the symmetry under which this board has the smallest hash.
+     * All boards that are symmetric to each other have the same canonical hash, symmetricHashes[canonicalSymmetry()].
+     */
+    public int canonicalSymmetry() {
+        int canonical = 0;
+        for (int s = 1; s < BitboardLayout.SYMMETRIES; s++) {
+            if (symmetricHashes[s] < symmetricHashes[canonical]) {
+                canonical = s;
+            }
+        }
+        return canonical;
+    }
+
+    /**
+     * @return the empty fields on which the given color can complete three in a row with its next move,
+     * i.e. where it threatens to win.
+     */
+    public long threats(final Field color) {
+        final long stones = get(color);
+        final int stride = layout.stride;
+        final long reachable = empty() & ((stones << 1) | (stones >>> 1) | (stones << stride) | (stones >>> stride));
+        if (reachable == 0) {
+            return 0;
+        }
+        long candidates = 0;
+        for (int d = 0; d < layout.DIRECTIONS.length; d++) {
+            final int shift = layout.DIRECTIONS[d];
+            final long starts = layout.lineStarts[d];
+            final long second = stones >>> shift;
+            final long third = stones >>> (2 * shift);
+            // windows i, i+d, i+2d with two stones: the missing one is the first, the second or the third field
+            candidates |= starts & second & third & reachable;
+            candidates |= (starts & stones & third & (reachable >>> shift)) << shift;
+            candidates |= (starts & stones & second & (reachable >>> (2 * shift))) << (2 * shift);
+        }
+        // a candidate is only a threat if it can be reached by a stone that is not part of the run,
+        // e.g. x?x can not be completed by moving one of its own stones into the gap.
+        // Without three in a row yet, the run can only go through the candidate, otherwise the whole board is checked.
+        final boolean hasRun = runs(color) == RUN_OF_THREE;
+        long threats = 0;
+        while (candidates != 0) {
+            final long field = Long.lowestOneBit(candidates);
+            candidates ^= field;
+            long neighbours = stones & ((field << 1) | (field >>> 1) | (field << stride) | (field >>> stride));
+            while (neighbours != 0) {
+                final long stone = Long.lowestOneBit(neighbours);
+                neighbours ^= stone;
+                final long moved = stones ^ stone ^ field;
+                if (hasRun ? countRuns(layout, moved) == RUN_OF_THREE
+                        : layout.hasRunThrough(moved, Long.numberOfTrailingZeros(field))) {
+                    threats |= field;
+                    break;
+                }
+            }
+        }
+        return threats;
+    }
+
+    /**
+     * @return true if one of the colors has three in a row.
+     */
+    public boolean isTerminal() {
+        return whiteRuns == RUN_OF_THREE || blackRuns == RUN_OF_THREE;
+    }
+
+    /**
+     * @return true if the move, which has just been made by makeMove(movableColor, move), made three in a row.
+     * Only looks at the lines through the field the stone moved to (see BitboardLayout#linesThrough),
+     * so it is the same as isTerminal only if there was no three in a row before the move.
+     */
+    public boolean isWinningMove(final Field movableColor, final int move) {
+        return layout.hasRunThrough(get(movableColor), Move.to(move));
+    }
+
+    /**
+     * @return the Field at the zero-based coordinates x,y
+     */
+    public Field get(int x, int y) {
+        long bit = layout.bit(x, y);
+        if ((white & bit) != 0) {
+            return Field.WHITE;
+        }
+        if ((black & bit) != 0) {
+            return Field.BLACK;
+        }
+        return Field.EMPTY;
+    }
+
+    public long occupied() {
+        return white | black;
+    }
+
+    public long empty() {
+        return layout.onBoard & ~(white | black);
+    }
+
+    /**
+     * @return true if the given color has at least one move, i.e. a stone next to an empty field.
+     * The guard bits are never empty, so the shifts by one do not reach into the next row.
+     */
+    public boolean hasMove(final Field movableColor) {
+        final long empty = empty();
+        final int stride = layout.stride;
+        final long movable = (empty >>> 1) | (empty << 1) | (empty >>> stride) | (empty << stride);
+        return (get(movableColor) & movable) != 0;
+    }
+
+    /**
+     * writes all moves of the given color into moves, ordered by the field of the moved stone (row by row),
+     * then by direction W, E, N, S.
+     * @param moves buffer that is big enough for 4 moves per stone
+     * @return number of moves written
+     */
+    public int generateMoves(final Field movableColor, final int[] moves) {
+        final long empty = empty();
+        final int stride = layout.stride;
+        int count = 0;
+        long stones = get(movableColor);
+        while (stones != 0) {
+            final int from = Long.numberOfTrailingZeros(stones);
+            final long bit = 1L << from;
+            stones ^= bit;
+            // guard bits and bits outside of the board are never empty, so no bounds checks are needed
+            //WEST
+            if (((bit >>> 1) & empty) != 0) {
+                moves[count++] = Move.encode(from, from - 1);
+            }
+            //EAST
+            if (((bit << 1) & empty) != 0) {
+                moves[count++] = Move.encode(from, from + 1);
+            }
+            //NORTH
+            if (((bit >>> stride) & empty) != 0) {
+                moves[count++] = Move.encode(from, from - stride);
+            }
+            //SOUTH
+            if (((bit << stride) & empty) != 0) {
+                moves[count++] = Move.encode(from, from + stride);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * moves a stone of the given color in place, including the update of the hash and the runs.
+     * Only the runs of the moving color can change, the other color is not recounted.
+     */
+    public void makeMove(final Field movableColor, final int move) {
+        final int from = Move.from(move);
+        final int to = Move.to(move);
+        final long mask = (1L << from) | (1L << to);
+        if (movableColor == Field.WHITE) {
+            white ^= mask;
+            whiteRuns = countRuns(layout, white);
+        } else {
+            black ^= mask;
+            blackRuns = countRuns(layout, black);
+        }
+        hash ^= Zobrist.move(movableColor, from, to);
+        symmetricHashes[0] = hash;
+        for (int s = 1; s < BitboardLayout.SYMMETRIES; s++) {
+            final int[] map = layout.symmetricIndex[s];
+            symmetricHashes[s] ^= Zobrist.move(movableColor, map[from], map[to]);
+        }
+    }
+
+    /**
+     * reverts makeMove(movableColor, move). Both only flip the same bits, so this is the same operation.
+     */
+    public void unmakeMove(final Field movableColor, final int move) {
+        makeMove(movableColor, move);
+    }
+
+    /**
+     * counts the windows of three fields (i, i+d, i+2d) with a stone at i and exactly one more stone,
+     * i.e. xx? and x?x, for all four directions at once.
+     * At the border, i+2d is off the board and never set, so the window is xx? if i+d is set.
+     *
+     * makeMove recounts the moving color on the whole board instead of updating only the windows that contain
+     * from or to. A per-window update would test up to twelve windows per changed field before and after the move,
+     * plus the pairs at the border (see BitboardLayout#pairStarts). A few shifts per direction on a board of at most
+     * 64 bits are cheaper.
+     * @return number of windows, RUN_OF_THREE if there is a window with three stones.
+     */
+    static int countRuns(final BitboardLayout layout, final long stones) {
+        int runs = 0;
+        for (int d = 0; d < layout.DIRECTIONS.length; d++) {
+            final int shift = layout.DIRECTIONS[d];
+            final long second = stones >>> shift;
+            // the third field only counts if the second one is on the board, otherwise the index wraps
+            final long third = (stones >>> (2 * shift)) & layout.pairStarts[d];
+            if ((stones & second & third) != 0) {
+                return RUN_OF_THREE;
+            }
+            runs += Long.bitCount(stones & (second ^ third));
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,189 @@
+package torgeros.connect3.agent;
+
+/**
+ * bit numbering and precomputed masks for one board size.
+ *
+ * Fields are numbered row by row (zero-based): index = x + y * stride.
+ * Every row has one unused guard bit at x == width, i.e. stride = width + 1.
+ * The guard bits are never set, so shifting a bitboard by one of the DIRECTIONS can not wrap a run
+ * from the end of one row into the start of the next.
+ * 7x6 (large-grid) uses 48 bits, 5x4 uses 24 bits.
+ */
+class BitboardLayout {
+    public final int width;
+    public final int height;
+    public final int stride;
+
+    /**
+     * all bits that are actual fields of the board (no guard bits).
+     */
+    public final long onBoard;
+
+    /**
+     * shift distances for the four directions of a run, in the order checked by Ai#heuristic:
+     * vertical, diagonal \, diagonal /, horizontal.
+     * Shifting right by DIRECTIONS[d] moves the field (x,y)+step onto (x,y).
+     */
+    public final int[] DIRECTIONS;
+
+    /**
+     * per direction: bit i is set if i, i+d and i+2d are all on the board.
+     * i.e. the first field of every possible run of three.
+     */
+    public final long[] lineStarts;
+
+    /**
+     * per direction: bit i is set if i and i+d are on the board.
+     * Used by the heuristic, which only looks at i+2d if i+d is on the board.
+     */
+    public final long[] pairStarts;
+
+    /**
+     * at index * DIRECTIONS.length + d: the fields of the line in direction d that are at most two steps away
+     * from the field with the given index, the field included. Every run of three through the field lies in one of them.
+     * A move can only complete a run of three through the field it moves to, see hasRunThrough.
+     * Zero for bits that are no fields.
+     */
+    public final long[] linesThrough;
+
+    /**
+     * symmetries of the board: identity, mirror left-right, mirror top-bottom and rotation by 180 degrees.
+     * Each of them is its own inverse.
+     *
+     * All of them keep the side to move (see Zobrist): both colors have the same number of stones,
+     * so the sum of all stone coordinates changes by an even number and keeps its parity.
+     * Swapping the colors is no symmetry in that sense, the same fields would be occupied with the other side to move.
+     */
+    public static final int SYMMETRIES = 4;
+
+    /**
+     * per symmetry: the bit index every field is mapped to. Bits that are no fields are mapped to themselves.
+     */
+    public final int[][] symmetricIndex;
+
+    public BitboardLayout(int width, int height) {
+        if ((width + 1) * height > Long.SIZE) {
+            throw new IllegalArgumentException(String.format("board of %dx%d does not fit into a bitboard", width, height));
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+
+        DIRECTIONS = new int[] {stride, stride + 1, stride - 1, 1};
+        final int[] stepX = {0, 1, -1, 1};
+        final int[] stepY = {1, 1, 1, 0};
+
+        long mask = 0;
+        lineStarts = new long[DIRECTIONS.length];
+        pairStarts = new long[DIRECTIONS.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                mask |= bit(x, y);
+                for (int d = 0; d < DIRECTIONS.length; d++) {
+                    if (has(x + stepX[d], y + stepY[d])) {
+                        pairStarts[d] |= bit(x, y);
+                        if (has(x + 2 * stepX[d], y + 2 * stepY[d])) {
+                            lineStarts[d] |= bit(x, y);
+                        }
+                    }
+                }
+            }
+        }
+        onBoard = mask;
+
+        linesThrough = new long[Long.SIZE * DIRECTIONS.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int d = 0; d < DIRECTIONS.length; d++) {
+                    long line = 0;
+                    for (int k = -2; k <= 2; k++) {
+                        if (has(x + k * stepX[d], y + k * stepY[d])) {
+                            line |= bit(x + k * stepX[d], y + k * stepY[d]);
+                        }
+                    }
+                    linesThrough[index(x, y) * DIRECTIONS.length + d] = line;
+                }
+            }
+        }
+
+        symmetricIndex = new int[SYMMETRIES][Long.SIZE];
+        for (int s = 0; s < SYMMETRIES; s++) {
+            for (int i = 0; i < Long.SIZE; i++) {
+                symmetricIndex[s][i] = i;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                symmetricIndex[1][index(x, y)] = index(width - 1 - x, y);
+                symmetricIndex[2][index(x, y)] = index(x, height - 1 - y);
+                symmetricIndex[3][index(x, y)] = index(width - 1 - x, height - 1 - y);
+            }
+        }
+    }
+
+    /**
+     * @return true if the stones have three in a row through the field with the given index
+     */
+    public boolean hasRunThrough(final long stones, final int index) {
+        // the stones on a line only overlap with themselves shifted along that line, and only where three follow each other
+        final int line = index * DIRECTIONS.length;
+        final long vertical = stones & linesThrough[line];
+        final long diagonal = stones & linesThrough[line + 1];
+        final long antiDiagonal = stones & linesThrough[line + 2];
+        final long horizontal = stones & linesThrough[line + 3];
+        return (vertical & (vertical >>> DIRECTIONS[0]) & (vertical >>> 2 * DIRECTIONS[0])
+                | diagonal & (diagonal >>> DIRECTIONS[1]) & (diagonal >>> 2 * DIRECTIONS[1])
+                | antiDiagonal & (antiDiagonal >>> DIRECTIONS[2]) & (antiDiagonal >>> 2 * DIRECTIONS[2])
+                | horizontal & (horizontal >>> DIRECTIONS[3]) & (horizontal >>> 2 * DIRECTIONS[3])) != 0;
+    }
+
+    /**
+     * @return the stones mapped by the given symmetry
+     */
+    public long transform(final int symmetry, long stones) {
+        final int[] map = symmetricIndex[symmetry];
+        long transformed = 0;
+        while (stones != 0) {
+            transformed |= 1L << map[Long.numberOfTrailingZeros(stones)];
+            stones &= stones - 1;
+        }
+        return transformed;
+    }
+
+    /**
+     * @return the move mapped by the given symmetry, Move.NONE stays Move.NONE
+     */
+    public int transformMove(final int symmetry, final int move) {
+        if (move == Move.NONE) {
+            return Move.NONE;
+        }
+        final int[] map = symmetricIndex[symmetry];
+        return Move.encode(map[Move.from(move)], map[Move.to(move)]);
+    }
+
+    /**
+     * @return true if the zero-based coordinates are on the board
+     */
+    public boolean has(int x, int y) {
+        return (x >= 0) && (y >= 0) && (x < width) && (y < height);
+    }
+
+    /**
+     * @return index of the zero-based field x,y
+     */
+    public int index(int x, int y) {
+        return x + y * stride;
+    }
+
+    public long bit(int x, int y) {
+        return 1L << index(x, y);
+    }
+
+    public int x(int index) {
+        return index % stride;
+    }
+
+    public int y(int index) {
+        return index / stride;
+    }
+}
@@ -6,28 +6,50 @@ import torgeros.connect3.Board.Field;
 
 public class EvaluatableAi extends Ai {
 
-    int sumOfProcessingTime = 0;
+    final LatencyHistogram processingTimes = new LatencyHistogram();
     int numberOfMoves = 0; // number of own moves
 
     public EvaluatableAi(PlayerColor ownColor) {
-        super(ownColor);
+        this(ownColor, new AiOptions());
+    }
+
+    public EvaluatableAi(PlayerColor ownColor, AiOptions options) {
+        super(ownColor, options);
         System.out.printf("Started Evaluatable AI.%n");
     }
 
     @Override
     public String getBestMove() {
-        final long startTimestamp = System.currentTimeMillis();
+        final long startTimestamp = System.nanoTime();
         String move = super.getBestMove();
-        final long stopTimestamp = System.currentTimeMillis();
+        final long stopTimestamp = System.nanoTime();
         numberOfMoves++;
-        sumOfProcessingTime += stopTimestamp-startTimestamp;
+        processingTimes.record(stopTimestamp-startTimestamp);
 
         if (super.maximizingColor == Field.WHITE) {
             System.out.printf("move number %d.%n", numberOfMoves * 2 - 1);
         } else {
             System.out.printf("move number %d.%n", numberOfMoves * 2);
         }
-        System.out.printf("average processing time for every move up until now was %d ms.%n", sumOfProcessingTime / numberOfMoves);
+        System.out.printf("processing time of every move up until now: average %.1f ms, p50 %.1f ms, p99 %.1f ms, max %.1f ms.%n",
+                processingTimes.mean() / 1e6, processingTimes.valueAtPercentile(50) / 1e6,
+                processingTimes.valueAtPercentile(99) / 1e6, processingTimes.max() / 1e6);
+        System.out.printf("searched %d nodes, %d aspiration re-searches.%n",
+                searchers[0].nodes, searchers[0].aspirationFailures);
+        System.out.printf("selective search: %d reductions, %d of them searched again, %d extensions.%n",
+                searchers[0].reductions, searchers[0].reductionReSearches, searchers[0].extensions);
+        final MoveOrdering ordering = searchers[0].ordering;
+        if (ordering.getCutoffs() > 0) {
+            System.out.printf("move ordering: %d of %d cutoffs (%.1f%%) happened on the first move.%n",
+                    ordering.getFirstMoveCutoffs(), ordering.getCutoffs(),
+                    100.0 * ordering.getFirstMoveCutoffs() / ordering.getCutoffs());
+        }
+        String pv = "";
+        for (int pvMove : ordering.getPreviousPv()) {
+            pv += " " + getMoveString(pvMove);
+        }
+        System.out.printf("principal variation:%s%n", pv);
+        System.out.printf("all threads: %s.%n", lastSearch());
         return move;
     }
 }
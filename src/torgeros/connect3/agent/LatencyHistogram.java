@@ -0,0 +1,82 @@
+package torgeros.connect3.agent;
+
+/**
+ * histogram of durations in nanoseconds with a fixed memory footprint, in the style of HdrHistogram:
+ * values below 128 have a bucket each, above that every power of two is split into 64 buckets,
+ * so a recorded value is off by less than 1/64 (1.6%) and any long fits into 3712 buckets.
+ * Recording is an array increment, nothing is allocated. Not thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    /**
+     * the largest long has its highest bit at 62, i.e. a shift of 62 - (SUB_BUCKET_BITS - 1).
+     */
+    private static final int BUCKETS = HALF_SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1);
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * @param value duration in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the smallest value that percentile percent of the recorded values are less than or equal to,
+     *         rounded up to the end of its bucket but never above max. 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(final double percentile) {
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && count > 0; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // keep the highest SUB_BUCKET_BITS bits, their value is in [HALF_SUB_BUCKETS, SUB_BUCKETS)
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return HALF_SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    private static long highestInBucket(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / HALF_SUB_BUCKETS - 1;
+        final long subBucket = index % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,550 @@
+package torgeros.connect3.agent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import torgeros.connect3.ConnectThree.PlayerColor;
+import torgeros.connect3.Board;
+import torgeros.connect3.Board.Field;
+
+/**
+ * Monte Carlo tree search agent, the alternative to the alpha-beta search of Ai.
+ *
+ * Every playout walks down the tree with UCT (upper confidence bounds applied to trees), expands the leaf it reaches
+ * and plays the game on from there with random moves. The random moves are lightly guided: a move that wins
+ * is always played and a threat of the opponent is blocked if possible (see Bitboard#threats), otherwise a playout
+ * mostly measures who misses a win first. The result is counted in every node on the way back up.
+ *
+ * Several threads run playouts on the same tree. A playout counts its visit in the nodes on its path on the way down
+ * and only adds its result on the way back up (virtual loss), so until then the other threads see a lost visit
+ * and prefer other paths.
+ *
+ * The tree is kept between moves: the node two plies below the root that matches the new board becomes the new root.
+ *
+ * Repetitions are handled like in Ai: a state that is reached for the third time, counting the game history, is a draw.
+ * That depends on the path, so it is decided while walking down and not stored in the tree.
+ */
+public class MctsAi implements Agent {
+    /**
+     * reward of a playout for the player that made the move into a node. Integers, so they can be added atomically.
+     */
+    private static final int REWARD_WIN = 2;
+    private static final int REWARD_DRAW = 1;
+
+    /**
+     * the main worker polls the clock once every POLL_INTERVAL playouts (a power of two).
+     */
+    private static final int POLL_INTERVAL = 64;
+
+    /**
+     * rough size of a node with its share of the children array, used to keep the tree within AiOptions#treeMb.
+     */
+    private static final long NODE_BYTES = 64;
+
+    private static final VarHandle VISITS;
+    private static final VarHandle REWARD;
+    static {
+        try {
+            VISITS = MethodHandles.lookup().findVarHandle(Node.class, "visits", int.class);
+            REWARD = MethodHandles.lookup().findVarHandle(Node.class, "reward", int.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    protected final Field maximizingColor; // own color
+    protected final Field minimizingColor; // opponents color
+
+    Bitboard currentBoard;
+    BitboardLayout layout;
+
+    /**
+     * counts the number of times a state has been visited, for the threefold repetition rule. See Ai#stateCounter.
+     */
+    final RepetitionCounter stateCounter = new RepetitionCounter();
+
+    final TimeManager timeManager;
+    final double explorationConstant;
+    final int playoutPlies;
+
+    /**
+     * workers[0] runs on the calling thread, the others on workerPool,
+     * which is either a pool of this agent or the pool shared by all agents of the process, see AiOptions#pool.
+     * A shared pool runs workers[0] as well.
+     */
+    final int threads;
+    Worker[] workers;
+    final SearchPool workerPool;
+    final boolean sharedPool;
+    volatile boolean stopSearch;
+
+    /**
+     * the tree of the last search and the board at its root, null before the first search.
+     */
+    Node root;
+    Bitboard rootBoard;
+
+    /**
+     * number of nodes in the tree. No more leaves are expanded once it reaches maxNodes.
+     */
+    final AtomicLong treeSize = new AtomicLong();
+    final long maxNodes;
+
+    /**
+     * number of playouts of the last search.
+     */
+    long playouts;
+
+    /**
+     * statistics of the last getBestMove, null before the first one.
+     */
+    SearchStatistics lastSearch;
+
+    public MctsAi(PlayerColor ownColor) {
+        this(ownColor, new AiOptions());
+    }
+
+    public MctsAi(PlayerColor ownColor, AiOptions options) {
+        if (ownColor == PlayerColor.WHITE_PLAYER) {
+            maximizingColor = Field.WHITE;
+            minimizingColor = Field.BLACK;
+        } else {
+            maximizingColor = Field.BLACK;
+            minimizingColor = Field.WHITE;
+        }
+        timeManager = new TimeManager(options.moveTimeMs);
+        explorationConstant = options.explorationConstant;
+        playoutPlies = options.playoutPlies;
+        threads = options.threads;
+        sharedPool = options.pool != null;
+        if (sharedPool) {
+            workerPool = options.pool;
+        } else if (threads > 1) {
+            workerPool = new SearchPool(threads - 1, "mcts-worker");
+        } else {
+            workerPool = null;
+        }
+        maxNodes = options.treeMb * (1L << 20) / NODE_BYTES;
+        SearchEvent.load();
+        System.out.printf("created new MCTS AI that plays %s (%c)%n", ownColor.getClientName(), maximizingColor.getChar());
+    }
+
+    /**
+     * Set the given board as the current state.
+     * Increases stateCounter, so this function has to be called once FOR EACH OF BOTH PLAYER'S moves, like Ai's.
+     */
+    public void updateInternalBoard(final Board board) {
+        if (layout == null || layout.width != board.width || layout.height != board.height) {
+            layout = new BitboardLayout(board.width, board.height);
+            workers = new Worker[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(i);
+            }
+            root = null;
+        }
+        currentBoard = Bitboard.fromBoard(board, layout);
+        stateCounter.increase(currentBoard.hash);
+    }
+
+    public String getBestMove() {
+        final long start = System.nanoTime();
+        final SearchEvent event = new SearchEvent("mcts", maximizingColor.name());
+        event.begin();
+        timeManager.startMove();
+        stopSearch = false;
+        // without a move the root gets no children, see Ai#checkHasMove
+        Ai.checkHasMove(currentBoard, maximizingColor);
+        final long reused = reuseTree();
+        if (root.children == null) {
+            expand(root, currentBoard, maximizingColor);
+        }
+        // a move that wins right away needs no search
+        for (Node child : root.children) {
+            if (child.won) {
+                System.out.printf("mcts: winning move.%n");
+                lastSearch = new SearchStatistics(1, root.children.length, System.nanoTime() - start);
+                event.commit(lastSearch);
+                return Move.toServerString(layout, child.move);
+            }
+        }
+
+        ArrayList<SearchTask> helpers = new ArrayList<SearchTask>();
+        for (int i = 1; i < workers.length; i++) {
+            final Worker worker = workers[i];
+            // a worker that is skipped (see SearchTask) adds nothing to the statistics
+            worker.clearCounters();
+            helpers.add(SearchTask.submit(workerPool, SearchPool.HELPER, () -> worker.run()));
+        }
+        if (sharedPool) {
+            SearchTask.run(workerPool, () -> workers[0].run());
+        } else {
+            workers[0].run();
+        }
+        for (SearchTask helper : helpers) {
+            helper.finish();
+        }
+
+        playouts = 0;
+        long nodes = 0;
+        int depth = 0;
+        for (Worker worker : workers) {
+            playouts += worker.playouts;
+            nodes += worker.nodes;
+            depth = Math.max(depth, worker.depth);
+        }
+        // every playout ends in one scored leaf, there are no cutoffs and no table
+        lastSearch = new SearchStatistics(depth, nodes, System.nanoTime() - start, playouts, 0, 0, 0, 0, 0);
+        event.commit(lastSearch);
+        // the most visited move is the most reliable one, its value has been confirmed most often
+        Node best = root.children[0];
+        for (Node child : root.children) {
+            if (child.visits > best.visits) {
+                best = child;
+            }
+        }
+        final long elapsedMs = Math.max(1, timeManager.elapsedMs());
+        System.out.printf("mcts: %d playouts in %d ms (%d per second), tree of %d nodes, %d visits reused.%n",
+                playouts, elapsedMs, playouts * 1000 / elapsedMs, treeSize.get(), reused);
+        System.out.printf("mcts: best move %s scored %.1f%% in %d visits.%n",
+                Move.toServerString(layout, best.move), 50.0 * best.reward / Math.max(1, best.visits), best.visits);
+        return Move.toServerString(layout, best.move);
+    }
+
+    @Override
+    public SearchStatistics lastSearch() {
+        return lastSearch;
+    }
+
+    @Override
+    public void close() {
+        if (workerPool != null && !sharedPool) {
+            workerPool.shutdown();
+        }
+    }
+
+    /**
+     * makes the node of the last tree that matches currentBoard the root, or starts a new tree.
+     * Since getBestMove is only called with own color to move, that node is two plies below the old root:
+     * the own move that was played and the reply of the opponent.
+     * @return visits of the reused subtree, 0 if there was none
+     */
+    private long reuseTree() {
+        Node reused = null;
+        if (root != null && root.children != null) {
+            final Bitboard board = new Bitboard(layout, rootBoard.white, rootBoard.black, rootBoard.hash);
+            for (Node own : root.children) {
+                if (reused != null || own.children == null) {
+                    continue;
+                }
+                board.makeMove(maximizingColor, own.move);
+                for (Node reply : own.children) {
+                    board.makeMove(minimizingColor, reply.move);
+                    if (board.white == currentBoard.white && board.black == currentBoard.black) {
+                        reused = reply;
+                    }
+                    board.unmakeMove(minimizingColor, reply.move);
+                    if (reused != null) {
+                        break;
+                    }
+                }
+                board.unmakeMove(maximizingColor, own.move);
+            }
+        }
+        rootBoard = new Bitboard(layout, currentBoard.white, currentBoard.black, currentBoard.hash);
+        if (reused == null) {
+            root = new Node(Move.NONE, false);
+            treeSize.set(1);
+            return 0;
+        }
+        root = reused;
+        treeSize.set(countNodes(root));
+        return root.visits;
+    }
+
+    private static long countNodes(final Node node) {
+        long count = 1;
+        final Node[] children = node.children;
+        if (children != null) {
+            for (Node child : children) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * creates the children of node, unless another worker has done that already.
+     * @param board the state of node
+     * @param colorToMove color that moves from node to its children
+     */
+    private void expand(final Node node, final Bitboard board, final Field colorToMove) {
+        synchronized (node) {
+            if (node.children != null) {
+                return;
+            }
+            final int[] moves = new int[4 * Long.bitCount(layout.onBoard)];
+            final int moveCount = board.generateMoves(colorToMove, moves);
+            final Node[] children = new Node[moveCount];
+            for (int i = 0; i < moveCount; i++) {
+                board.makeMove(colorToMove, moves[i]);
+                children[i] = new Node(moves[i], board.isTerminal());
+                board.unmakeMove(colorToMove, moves[i]);
+            }
+            treeSize.addAndGet(moveCount);
+            node.children = children;
+        }
+    }
+
+    /**
+     * one state of the tree, reached by move from its parent.
+     * visits and reward are shared by all workers and only changed through VISITS and REWARD.
+     * reward is counted for the player that made move: REWARD_WIN per won and REWARD_DRAW per drawn playout.
+     */
+    static final class Node {
+        final int move;
+        /**
+         * move made three in a row, so the player that made it won and there are no children.
+         */
+        final boolean won;
+        /**
+         * null until the node is expanded, empty if the player to move has no moves.
+         */
+        volatile Node[] children;
+        int visits;
+        int reward;
+
+        Node(final int move, final boolean won) {
+            this.move = move;
+            this.won = won;
+        }
+    }
+
+    /**
+     * state of one playout thread: its own copy of the board, of the repetition history and of the path.
+     */
+    class Worker {
+        final Bitboard board;
+        final RepetitionCounter history = new RepetitionCounter();
+        final int[] moves;
+        final SplittableRandom random;
+
+        /**
+         * nodes of the current playout from the root, and hashes of all states it visited after the root.
+         */
+        Node[] path = new Node[64];
+        long[] hashes = new long[256];
+
+        long playouts;
+
+        /**
+         * states visited by all playouts so far, in the tree and below it, and the deepest node of the tree they reached.
+         */
+        long nodes;
+        int depth;
+
+        Worker(final int id) {
+            board = new Bitboard(layout, 0, 0);
+            moves = new int[4 * Long.bitCount(layout.onBoard)];
+            random = new SplittableRandom(System.nanoTime() + id);
+        }
+
+        void clearCounters() {
+            playouts = 0;
+            nodes = 0;
+            depth = 0;
+        }
+
+        /**
+         * runs playouts until the time is up or another worker stopped the search.
+         * A helper on the shared pool also returns once a move waits for a thread of the pool (see SearchPool),
+         * which may be the move of its own agent.
+         */
+        void run() {
+            history.copyFrom(stateCounter);
+            clearCounters();
+            final boolean main = this == workers[0];
+            while (!stopSearch) {
+                playout();
+                playouts++;
+                if ((playouts & (POLL_INTERVAL - 1)) == 0) {
+                    if (timeManager.hardDeadlinePassed()) {
+                        stopSearch = true;
+                    } else if (!main && sharedPool && workerPool.mainSearchWaiting()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * one iteration: selection and expansion in the tree, the random playout below it and the backup of its result.
+         */
+        private void playout() {
+            board.copyFrom(rootBoard);
+            int length = 0;
+            int stateCount = 0;
+            Node node = root;
+            Field colorToMove = maximizingColor;
+            VISITS.getAndAdd(node, 1);
+            path[length++] = node;
+            // null for a draw
+            Field winner = null;
+            // true if the game ended in the tree, then there is no random playout
+            boolean decided = false;
+
+            // selection: follow UCT down to a node that has not been visited before
+            while (true) {
+                if (node.children == null) {
+                    // a leaf is expanded on its second visit, the first one is only a playout
+                    if ((node != root && (int) VISITS.getOpaque(node) <= 1) || treeSize.get() >= maxNodes) {
+                        break;
+                    }
+                    expand(node, board, colorToMove);
+                }
+                final Node[] children = node.children;
+                if (children.length == 0) {
+                    // the player to move is stuck and loses
+                    winner = other(colorToMove);
+                    decided = true;
+                    break;
+                }
+                final Node child = select(node, children);
+                board.makeMove(colorToMove, child.move);
+                VISITS.getAndAdd(child, 1);
+                if (length == path.length) {
+                    path = Arrays.copyOf(path, length * 2);
+                }
+                path[length++] = child;
+                stateCount = visit(stateCount, board.hash);
+                node = child;
+                if (child.won) {
+                    winner = colorToMove;
+                    decided = true;
+                    break;
+                }
+                if (history.get(board.hash) == 3) {
+                    decided = true;
+                    break;
+                }
+                colorToMove = other(colorToMove);
+            }
+
+            if (!decided) {
+                // random playout from node, colorToMove is to move there. Too long playouts count as draw.
+                for (int ply = 0; ply < playoutPlies; ply++) {
+                    final int moveCount = board.generateMoves(colorToMove, moves);
+                    if (moveCount == 0) {
+                        winner = other(colorToMove);
+                        break;
+                    }
+                    board.makeMove(colorToMove, pickMove(colorToMove, moveCount));
+                    stateCount = visit(stateCount, board.hash);
+                    if (board.isTerminal()) {
+                        winner = colorToMove;
+                        break;
+                    }
+                    if (history.get(board.hash) == 3) {
+                        break;
+                    }
+                    colorToMove = other(colorToMove);
+                }
+            }
+
+            for (int i = 0; i < stateCount; i++) {
+                history.decrease(hashes[i]);
+            }
+            nodes += stateCount;
+            depth = Math.max(depth, length - 1);
+            // backup: the root was entered by the opponent, every following node by the other color
+            Field mover = minimizingColor;
+            for (int i = 0; i < length; i++) {
+                if (winner == null) {
+                    REWARD.getAndAdd(path[i], REWARD_DRAW);
+                } else if (winner == mover) {
+                    REWARD.getAndAdd(path[i], REWARD_WIN);
+                }
+                mover = other(mover);
+            }
+        }
+
+        /**
+         * UCT: the child with the best average reward plus an exploration bonus that shrinks with its visits.
+         * Children that have not been visited yet come first. visits already include running playouts of other workers.
+         */
+        private Node select(final Node parent, final Node[] children) {
+            final double logVisits = Math.log(Math.max(1, (int) VISITS.getOpaque(parent)));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            // start at a random child, so equal children are not always taken in the same order
+            final int offset = random.nextInt(children.length);
+            for (int i = 0; i < children.length; i++) {
+                final Node child = children[(i + offset) % children.length];
+                final int visits = (int) VISITS.getOpaque(child);
+                if (visits == 0) {
+                    return child;
+                }
+                final double value = (int) REWARD.getOpaque(child) / (double) (REWARD_WIN * visits)
+                        + explorationConstant * Math.sqrt(logVisits / visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * picks the move of a playout from the moveCount moves in moves:
+         * a move that wins, otherwise a random move that blocks a threat of the opponent, otherwise a random move.
+         */
+        private int pickMove(final Field color, final int moveCount) {
+            final long wins = board.threats(color);
+            if (wins != 0) {
+                for (int i = 0; i < moveCount; i++) {
+                    if (((1L << Move.to(moves[i])) & wins) != 0) {
+                        board.makeMove(color, moves[i]);
+                        final boolean won = board.isTerminal();
+                        board.unmakeMove(color, moves[i]);
+                        if (won) {
+                            return moves[i];
+                        }
+                    }
+                }
+            }
+            final long blocks = board.threats(other(color));
+            if (blocks != 0) {
+                int blockCount = 0;
+                for (int i = 0; i < moveCount; i++) {
+                    if (((1L << Move.to(moves[i])) & blocks) != 0) {
+                        moves[blockCount++] = moves[i];
+                    }
+                }
+                if (blockCount > 0) {
+                    return moves[random.nextInt(blockCount)];
+                }
+            }
+            return moves[random.nextInt(moveCount)];
+        }
+
+        /**
+         * adds a state of the current playout to the repetition history.
+         * @return the new number of states of the current playout
+         */
+        private int visit(final int stateCount, final long hash) {
+            if (stateCount == hashes.length) {
+                hashes = Arrays.copyOf(hashes, stateCount * 2);
+            }
+            hashes[stateCount] = hash;
+            history.increase(hash);
+            return stateCount + 1;
+        }
+    }
+
+    private Field other(final Field color) {
+        return color == maximizingColor ? minimizingColor : maximizingColor;
+    }
+}
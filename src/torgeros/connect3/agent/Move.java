@@ -0,0 +1,48 @@
+package torgeros.connect3.agent;
+
+/**
+ * compact int encoding of a move: the bit index of the field moved from and of the field moved to.
+ * Bit indices are defined by the BitboardLayout, they fit into 8 bits each.
+ * Since from and to always differ, 0 is never a valid move.
+ */
+final class Move {
+    public static final int NONE = 0;
+
+    private Move() {
+    }
+
+    public static int encode(final int from, final int to) {
+        return from | (to << 8);
+    }
+
+    public static int from(final int move) {
+        return move & 0xFF;
+    }
+
+    public static int to(final int move) {
+        return (move >>> 8) & 0xFF;
+    }
+
+    /**
+     * @return the move as sent to the server: "<x><y><dir>" with server indices (starting at 1) of the moved stone.
+     */
+    public static String toServerString(final BitboardLayout layout, final int move) {
+        int oldX = layout.x(from(move));
+        int oldY = layout.y(from(move));
+        int newX = layout.x(to(move));
+        int newY = layout.y(to(move));
+        if (newX == oldX) {
+            if (newY > oldY) {
+                return String.format("%d%dS", oldX+1, oldY+1);
+            } else {
+                return String.format("%d%dN", oldX+1, oldY+1);
+            }
+        } else {
+            if (newX > oldX) {
+                return String.format("%d%dE", oldX+1, oldY+1);
+            } else {
+                return String.format("%d%dW", oldX+1, oldY+1);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package torgeros.connect3.agent;
+
+import java.util.Arrays;
+
+import torgeros.connect3.Board.Field;
+
+/**
+ * decides in which order minimax visits the moves of a node:
+ * 1. the move of the principal variation (PV) of the previous iteration, if the node is on that PV
+ * 2. the best move stored in the transposition table
+ * 3. the two killer moves of the ply, i.e. the last moves that caused a cutoff at the same distance from the root
+ * 4. all other moves by their history score, which sums up depth*depth for every cutoff of (color, from, to)
+ *
+ * Also keeps the PV of the current iteration (triangular PV table) and counts how many cutoffs happened
+ * on the first move, which is the usual measure for the quality of the ordering.
+ */
+class MoveOrdering {
+    private static final int SCORE_PV = 1 << 30;
+    private static final int SCORE_TABLE = 1 << 29;
+    private static final int SCORE_KILLER_1 = 1 << 28;
+    private static final int SCORE_KILLER_2 = SCORE_KILLER_1 - 1;
+
+    /**
+     * all history scores are halved once one of them reaches this, so they always stay below the killers.
+     */
+    private static final int HISTORY_LIMIT = 1 << 26;
+
+    /**
+     * bit indices fit into 6 bits, see BitboardLayout.
+     */
+    private static final int INDICES = Long.SIZE;
+
+    /**
+     * [ply][0 or 1], killers[ply][0] is the most recent one.
+     */
+    private final int[][] killers;
+    /**
+     * indexed by (color, from, to), see historyIndex.
+     */
+    private final int[] history = new int[2 * INDICES * INDICES];
+    /**
+     * ordering score of every move in the move buffer of the same ply.
+     */
+    private final int[][] scores;
+
+    /**
+     * triangular PV table: pv[ply] holds the best line found from the node at ply, pvLength[ply] its length.
+     */
+    private final int[][] pv;
+    private final int[] pvLength;
+    private final int[] previousPv;
+    private int previousPvLength;
+
+    private long cutoffs;
+    private long firstMoveCutoffs;
+
+    /**
+     * @param maxPly number of move buffers
+     * @param maxMoves size of each move buffer
+     */
+    public MoveOrdering(final int maxPly, final int maxMoves) {
+        killers = new int[maxPly][2];
+        scores = new int[maxPly][maxMoves];
+        pv = new int[maxPly][maxPly];
+        pvLength = new int[maxPly];
+        previousPv = new int[maxPly];
+    }
+
+    /**
+     * called before the first iteration of a new search.
+     * Killers and the previous PV belong to the old root, the history is only aged.
+     */
+    public void newSearch() {
+        for (int[] k : killers) {
+            k[0] = Move.NONE;
+            k[1] = Move.NONE;
+        }
+        ageHistory();
+        previousPvLength = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+    }
+
+    /**
+     * computes the ordering score for every move.
+     * @param pvMove move of the previous PV at this node, Move.NONE if the node is not on it
+     * @param tableMove best move from the transposition table, or Move.NONE
+     */
+    public void scoreMoves(final int ply, final Field color, final int[] moves, final int moveCount,
+            final int pvMove, final int tableMove) {
+        final int[] s = scores[ply];
+        final int[] k = killers[ply];
+        for (int i = 0; i < moveCount; i++) {
+            final int move = moves[i];
+            if (move == pvMove) {
+                s[i] = SCORE_PV;
+            } else if (move == tableMove) {
+                s[i] = SCORE_TABLE;
+            } else if (move == k[0]) {
+                s[i] = SCORE_KILLER_1;
+            } else if (move == k[1]) {
+                s[i] = SCORE_KILLER_2;
+            } else {
+                s[i] = history[historyIndex(color, move)];
+            }
+        }
+    }
+
+    /**
+     * selection sort step: swaps the best scored move of moves[index..moveCount) to moves[index].
+     * Only as many moves are sorted as are actually searched before a cutoff.
+     */
+    public void pickNext(final int ply, final int[] moves, final int index, final int moveCount) {
+        final int[] s = scores[ply];
+        int best = index;
+        for (int i = index + 1; i < moveCount; i++) {
+            if (s[i] > s[best]) {
+                best = i;
+            }
+        }
+        if (best != index) {
+            int tmp = moves[index];
+            moves[index] = moves[best];
+            moves[best] = tmp;
+            tmp = s[index];
+            s[index] = s[best];
+            s[best] = tmp;
+        }
+    }
+
+    /**
+     * records a cutoff caused by move, which was the moveIndex-th move searched at ply.
+     */
+    public void cutoff(final int ply, final Field color, final int move, final int depth, final int moveIndex) {
+        cutoffs++;
+        if (moveIndex == 0) {
+            firstMoveCutoffs++;
+        }
+        final int[] k = killers[ply];
+        if (k[0] != move) {
+            k[1] = k[0];
+            k[0] = move;
+        }
+        final int index = historyIndex(color, move);
+        history[index] += depth * depth;
+        if (history[index] >= HISTORY_LIMIT) {
+            ageHistory();
+        }
+    }
+
+    private void ageHistory() {
+        for (int i = 0; i < history.length; i++) {
+            history[i] >>= 1;
+        }
+    }
+
+    private static int historyIndex(final Field color, final int move) {
+        return (color.ordinal() * INDICES + Move.from(move)) * INDICES + Move.to(move);
+    }
+
+    /**
+     * has to be called on entry of every node, so leaves have an empty PV.
+     */
+    public void clearPv(final int ply) {
+        pvLength[ply] = 0;
+    }
+
+    /**
+     * move is the new best move at ply: the PV of ply becomes move followed by the PV of ply+1.
+     */
+    public void updatePv(final int ply, final int move) {
+        pv[ply][0] = move;
+        if (ply + 1 < pv.length) {
+            System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+            pvLength[ply] = pvLength[ply + 1] + 1;
+        } else {
+            pvLength[ply] = 1;
+        }
+    }
+
+    /**
+     * keeps the PV of the iteration that just completed, for ordering the next one.
+     */
+    public void completeIteration() {
+        previousPvLength = pvLength[0];
+        System.arraycopy(pv[0], 0, previousPv, 0, previousPvLength);
+    }
+
+    /**
+     * sets the PV of the previous iteration, e.g. to the rest of the PV of the previous search
+     * once the moves before it have been played. Has to be called after newSearch.
+     */
+    public void setPreviousPv(final int[] moves) {
+        previousPvLength = Integer.min(moves.length, previousPv.length);
+        System.arraycopy(moves, 0, previousPv, 0, previousPvLength);
+    }
+
+    /**
+     * @return move at ply of the PV of the last completed iteration, Move.NONE if the PV is shorter.
+     */
+    public int previousPvMove(final int ply) {
+        return ply < previousPvLength ? previousPv[ply] : Move.NONE;
+    }
+
+    /**
+     * @return the PV of the last completed iteration
+     */
+    public int[] getPreviousPv() {
+        return Arrays.copyOf(previousPv, previousPvLength);
+    }
+
+    public long getCutoffs() {
+        return cutoffs;
+    }
+
+    public long getFirstMoveCutoffs() {
+        return firstMoveCutoffs;
+    }
+}
@@ -0,0 +1,107 @@
+package torgeros.connect3.agent;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import torgeros.connect3.Board;
+import torgeros.connect3.Board.Field;
+import torgeros.connect3.ConnectThree.PlayerColor;
+
+/**
+ * perft: counts all move sequences of a fixed length from a position, the standard check of a move generator.
+ * The counts of a position do not change as long as the rules do not, so any difference after a change of
+ * Bitboard#generateMoves, makeMove or isTerminal is a bug.
+ *
+ * A position with three in a row ends the game: it is counted if it is reached at the full depth,
+ * but no sequence continues from it. The threefold repetition rule is ignored, it depends on the history
+ * and not on the move generator.
+ *
+ * The root moves are counted in parallel, each one by a task with its own board copy and move buffers.
+ */
+public class Perft {
+    private final BitboardLayout layout;
+    private final int depth;
+    private final int[][] moveBuffers;
+    private final Bitboard node;
+
+    private Perft(final Bitboard root, final int depth) {
+        this.layout = root.layout;
+        this.depth = depth;
+        // at most 4 moves per stone, at most one stone per field
+        moveBuffers = new int[depth][4 * Long.bitCount(layout.onBoard)];
+        node = new Bitboard(layout, 0, 0);
+        node.copyFrom(root);
+    }
+
+    /**
+     * counts the sequences of depth moves from board and prints them per root move ("divide"),
+     * followed by the total and the number of counted nodes per second.
+     * @param toMove the player who makes the first move
+     * @return number of sequences
+     */
+    public static long run(final Board board, final PlayerColor toMove, final int depth, final int threads) {
+        final BitboardLayout layout = new BitboardLayout(board.width, board.height);
+        final Bitboard root = Bitboard.fromBoard(board, layout);
+        final Field color = toMove.getField();
+        final Field opponent = color == Field.WHITE ? Field.BLACK : Field.WHITE;
+        final int[] rootMoves = new int[4 * Long.bitCount(layout.onBoard)];
+        final int rootMoveCount = root.isTerminal() ? 0 : root.generateMoves(color, rootMoves);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final long start = System.nanoTime();
+            final ArrayList<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int i = 0; i < rootMoveCount; i++) {
+                final int move = rootMoves[i];
+                counts.add(pool.submit(() -> {
+                    final Perft perft = new Perft(root, depth - 1);
+                    perft.node.makeMove(color, move);
+                    return perft.count(opponent, depth - 1);
+                }));
+            }
+            long total = 0;
+            for (int i = 0; i < rootMoveCount; i++) {
+                final long count = counts.get(i).get();
+                System.out.printf("%s: %d%n", Move.toServerString(layout, rootMoves[i]), count);
+                total += count;
+            }
+            final long elapsedNs = Long.max(1, System.nanoTime() - start);
+            System.out.printf("perft(%d) = %d, %d root moves, %d ms, %d nodes/s%n",
+                    depth, total, rootMoveCount, elapsedNs / 1_000_000, total * 1_000_000_000L / elapsedNs);
+            return total;
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IllegalStateException("perft failed", ex);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return number of sequences of remaining moves from node, color moves first
+     */
+    private long count(final Field color, final int remaining) {
+        if (remaining == 0) {
+            return 1;
+        }
+        if (node.isTerminal()) {
+            return 0;
+        }
+        final int[] moves = moveBuffers[depth - remaining];
+        final int moveCount = node.generateMoves(color, moves);
+        if (remaining == 1) {
+            // every move is a sequence, no need to make them
+            return moveCount;
+        }
+        final Field opponent = color == Field.WHITE ? Field.BLACK : Field.WHITE;
+        long sequences = 0;
+        for (int i = 0; i < moveCount; i++) {
+            node.makeMove(color, moves[i]);
+            sequences += count(opponent, remaining - 1);
+            node.unmakeMove(color, moves[i]);
+        }
+        return sequences;
+    }
+}
@@ -0,0 +1,116 @@
+package torgeros.connect3.agent;
+
+/**
+ * counts the number of times a state has been visited, keyed by its Zobrist hash.
+ * open addressing with linear probing on primitive arrays, so in-/decreasing does not allocate.
+ * A slot is empty if its count is 0; entries that drop to 0 are removed immediately (backward shift),
+ * so the table only ever holds the game history plus the current search path.
+ */
+class RepetitionCounter {
+    /**
+     * the table is grown once more than half of the slots are used.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    public RepetitionCounter() {
+        keys = new long[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+    }
+
+    public void increase(final long hash) {
+        int slot = find(hash);
+        if (counts[slot] == 0) {
+            keys[slot] = hash;
+            size++;
+            if (size * 2 > keys.length) {
+                counts[slot] = 1;
+                grow();
+                return;
+            }
+        }
+        counts[slot]++;
+    }
+
+    /**
+     * has to be called with a hash that has been increased before.
+     */
+    public void decrease(final long hash) {
+        int slot = find(hash);
+        if (--counts[slot] == 0) {
+            size--;
+            remove(slot);
+        }
+    }
+
+    /**
+     * replaces the content of this counter by a copy of other.
+     */
+    public void copyFrom(final RepetitionCounter other) {
+        if (keys.length != other.keys.length) {
+            keys = new long[other.keys.length];
+            counts = new int[other.counts.length];
+        }
+        System.arraycopy(other.keys, 0, keys, 0, keys.length);
+        System.arraycopy(other.counts, 0, counts, 0, counts.length);
+        mask = other.mask;
+        size = other.size;
+    }
+
+    public int get(final long hash) {
+        return counts[find(hash)];
+    }
+
+    /**
+     * @return the slot that holds hash, or the empty slot where it would be inserted
+     */
+    private int find(final long hash) {
+        int slot = (int) hash & mask;
+        while (counts[slot] != 0 && keys[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * closes the gap at an emptied slot by moving later entries of the same probe sequence back.
+     */
+    private void remove(int gap) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (counts[slot] == 0) {
+                return;
+            }
+            int home = (int) keys[slot] & mask;
+            // the entry can stay if its home slot lies cyclically within (gap, slot]
+            boolean stays = (gap <= slot) ? (gap < home && home <= slot) : (gap < home || home <= slot);
+            if (!stays) {
+                keys[gap] = keys[slot];
+                counts[gap] = counts[slot];
+                counts[slot] = 0;
+                gap = slot;
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
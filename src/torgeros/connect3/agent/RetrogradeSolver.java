@@ -0,0 +1,343 @@
+package torgeros.connect3.agent;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * offline tool that solves the 5x4 game completely by retrograde analysis and writes a Solution file.
+ *
+ * 1. every position is enumerated once. Positions with three in a row (the player who moved last has won)
+ *    and positions without a move are lost for the side to move, in 0 plies.
+ *    All others remember their number of moves, i.e. of children that are not known to be won yet.
+ * 2. the positions resolved at distance d are expanded backwards: for every predecessor (the stone of the player
+ *    who moved last is moved back), a lost child makes the predecessor won in d+1,
+ *    and a won child decreases the counter of the predecessor, which is lost in d+1 once all its children are won.
+ *    Since losses have even and wins odd distances, all positions of one distance are of the same kind.
+ * 3. positions that are never resolved are draws: both sides can avoid losing forever.
+ *    The threefold repetition rule does not change any value: along a line of best play
+ *    the distance to the win decreases with every move, so the winner never repeats a position.
+ *
+ * Each distance is expanded by all threads in parallel. Resolving a position is an atomic update of its counter
+ * (see CLAIMED), so every position is added to the next distance exactly once.
+ * The values are only written by the thread that resolved the position, and read after the distance is finished.
+ */
+public class RetrogradeSolver {
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * counter of a resolved position.
+     */
+    private static final int CLAIMED = -1;
+
+    /**
+     * NEIGHBOURS[field] holds the bit masks of the fields next to it (W, E, N, S), NEIGHBOUR_MASK[field] all of them.
+     */
+    private static final int[][] NEIGHBOURS = new int[Solution.CELLS][];
+    private static final int[] NEIGHBOUR_MASK = new int[Solution.CELLS];
+
+    /**
+     * HAS_RUN_OF_THREE[cells] is true if the set of fields contains three in a row in any direction.
+     */
+    private static final boolean[] HAS_RUN_OF_THREE = new boolean[1 << Solution.CELLS];
+
+    /**
+     * all sets of STONES fields, ordered by Solution#rank. Used for white, and for black on the fields left free by white.
+     */
+    private static final int[] WHITE_PLACEMENTS = placements(Solution.CELLS);
+    private static final int[] BLACK_PLACEMENTS = placements(Solution.CELLS - Solution.STONES);
+
+    static {
+        final int width = Solution.WIDTH;
+        final int height = Solution.HEIGHT;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final ArrayList<Integer> neighbours = new ArrayList<Integer>();
+                final int[][] steps = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+                for (int[] step : steps) {
+                    final int nx = x + step[0];
+                    final int ny = y + step[1];
+                    if (nx >= 0 && ny >= 0 && nx < width && ny < height) {
+                        neighbours.add(1 << (nx + ny * width));
+                    }
+                }
+                final int field = x + y * width;
+                NEIGHBOURS[field] = neighbours.stream().mapToInt(Integer::intValue).toArray();
+                for (int n : NEIGHBOURS[field]) {
+                    NEIGHBOUR_MASK[field] |= n;
+                }
+            }
+        }
+
+        final ArrayList<Integer> runs = new ArrayList<Integer>();
+        final int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {-1, 1}};
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int[] d : directions) {
+                    final int endX = x + 2 * d[0];
+                    final int endY = y + 2 * d[1];
+                    if (endX >= 0 && endX < width && endY < height) {
+                        runs.add((1 << (x + y * width)) | (1 << (x + d[0] + (y + d[1]) * width)) | (1 << (endX + endY * width)));
+                    }
+                }
+            }
+        }
+        for (int cells = 0; cells < HAS_RUN_OF_THREE.length; cells++) {
+            for (int run : runs) {
+                if ((cells & run) == run) {
+                    HAS_RUN_OF_THREE[cells] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private final int threads;
+    private final ExecutorService pool;
+
+    /**
+     * value of every position, encoded as described in Solution. 0 while unresolved.
+     */
+    private final byte[] values = new byte[Solution.POSITIONS];
+
+    /**
+     * number of children of every unresolved position that are not known to be won for the opponent,
+     * CLAIMED once the position is resolved. ints, because atomic updates of single bytes are not portable.
+     */
+    private final int[] remaining = new int[Solution.POSITIONS];
+
+    private RetrogradeSolver(final int threads) {
+        this.threads = threads;
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * solves the game and writes the result to path.
+     */
+    public static void solve(final Path path, final int threads) throws IOException {
+        final RetrogradeSolver solver = new RetrogradeSolver(threads);
+        try {
+            final long start = System.currentTimeMillis();
+            solver.run();
+            solver.write(path);
+            System.out.printf("solved %d positions in %d s, written to %s%n",
+                    Solution.POSITIONS, (System.currentTimeMillis() - start) / 1000, path);
+        } finally {
+            solver.pool.shutdown();
+        }
+    }
+
+    private void run() {
+        int[] frontier = parallel(Solution.BINOMIAL[Solution.CELLS][Solution.STONES], this::initialize);
+        int wins = 0;
+        int losses = 0;
+        for (int distance = 0; frontier.length > 0; distance++) {
+            if (distance % 2 == 0) {
+                losses += frontier.length;
+            } else {
+                wins += frontier.length;
+            }
+            System.out.printf("distance %d: %d positions%n", distance, frontier.length);
+            final int[] current = frontier;
+            final int next = distance + 1;
+            if (next + 1 > Byte.MAX_VALUE) {
+                throw new IllegalStateException("distance does not fit into the value bytes");
+            }
+            frontier = parallel(current.length, (begin, end, out) -> expand(current, begin, end, next, out));
+        }
+        System.out.printf("%d wins, %d losses, %d draws for the side to move%n",
+                wins, losses, Solution.POSITIONS - wins - losses);
+    }
+
+    /**
+     * resolves the terminal positions for all white placements in [begin, end) and counts the moves of all others.
+     */
+    private void initialize(final int begin, final int end, final IntList terminal) {
+        for (int w = begin; w < end; w++) {
+            final int white = WHITE_PLACEMENTS[w];
+            final int free = ~white & ((1 << Solution.CELLS) - 1);
+            for (int b = 0; b < BLACK_PLACEMENTS.length; b++) {
+                final int black = expand(BLACK_PLACEMENTS[b], free);
+                final int index = w * BLACK_PLACEMENTS.length + b;
+                final int moves = HAS_RUN_OF_THREE[white] || HAS_RUN_OF_THREE[black] ? 0
+                        : countMoves(Solution.whiteToMove(white, black) ? white : black, ~(white | black));
+                if (moves == 0) {
+                    values[index] = loss(0);
+                    remaining[index] = CLAIMED;
+                    terminal.add(index);
+                } else {
+                    remaining[index] = moves;
+                }
+            }
+        }
+    }
+
+    /**
+     * expands the positions frontier[begin..end), which all have the distance next - 1,
+     * and collects the predecessors that are resolved with the distance next.
+     */
+    private void expand(final int[] frontier, final int begin, final int end, final int next, final IntList resolved) {
+        final boolean childrenLost = next % 2 == 1;
+        final byte value = childrenLost ? (byte) next : loss(next);
+        for (int i = begin; i < end; i++) {
+            final int index = frontier[i];
+            final int white = WHITE_PLACEMENTS[index / BLACK_PLACEMENTS.length];
+            final int black = expand(BLACK_PLACEMENTS[index % BLACK_PLACEMENTS.length], ~white & ((1 << Solution.CELLS) - 1));
+            // the player who is not to move made the last move
+            final boolean whiteMovedLast = !Solution.whiteToMove(white, black);
+            final int empty = ~(white | black) & ((1 << Solution.CELLS) - 1);
+            int stones = whiteMovedLast ? white : black;
+            while (stones != 0) {
+                final int from = Integer.lowestOneBit(stones);
+                stones ^= from;
+                for (int previous : NEIGHBOURS[Integer.numberOfTrailingZeros(from)]) {
+                    if ((previous & empty) == 0) {
+                        continue;
+                    }
+                    final int moved = whiteMovedLast ? white ^ from ^ previous : black ^ from ^ previous;
+                    final int predecessor = whiteMovedLast ? Solution.index(moved, black) : Solution.index(white, moved);
+                    if (childrenLost) {
+                        if ((int) INTS.getAndSet(remaining, predecessor, CLAIMED) != CLAIMED) {
+                            values[predecessor] = value;
+                            resolved.add(predecessor);
+                        }
+                    } else if ((int) INTS.getVolatile(remaining, predecessor) != CLAIMED
+                            && (int) INTS.getAndAdd(remaining, predecessor, -1) == 1) {
+                        // only the thread that takes the counter to 0 gets here.
+                        // No position is claimed while lost positions are resolved, so the check above can not race.
+                        INTS.setVolatile(remaining, predecessor, CLAIMED);
+                        values[predecessor] = value;
+                        resolved.add(predecessor);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int countMoves(int stones, final int empty) {
+        int moves = 0;
+        while (stones != 0) {
+            final int field = Integer.numberOfTrailingZeros(stones);
+            stones &= stones - 1;
+            moves += Integer.bitCount(NEIGHBOUR_MASK[field] & empty);
+        }
+        return moves;
+    }
+
+    private static byte loss(final int distance) {
+        return (byte) (-distance - 1);
+    }
+
+    /**
+     * @return the fields of free that are selected by the bits of compressed, i.e. the inverse of Solution#compress.
+     */
+    private static int expand(int compressed, int free) {
+        int cells = 0;
+        while (compressed != 0) {
+            final int skip = Integer.numberOfTrailingZeros(compressed);
+            compressed &= compressed - 1;
+            int field = free;
+            for (int i = 0; i < skip; i++) {
+                field &= field - 1;
+            }
+            cells |= Integer.lowestOneBit(field);
+        }
+        return cells;
+    }
+
+    private static int[] placements(final int fields) {
+        final int[] placements = new int[Solution.BINOMIAL[fields][Solution.STONES]];
+        for (int cells = 0; cells < (1 << fields); cells++) {
+            if (Integer.bitCount(cells) == Solution.STONES) {
+                placements[Solution.rank(cells)] = cells;
+            }
+        }
+        return placements;
+    }
+
+    private void write(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = Solution.header();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            final ByteBuffer body = ByteBuffer.wrap(values);
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+        }
+    }
+
+    /**
+     * work on the range [begin, end), results are added to out.
+     */
+    private interface RangeTask {
+        void run(int begin, int end, IntList out);
+    }
+
+    /**
+     * splits [0, size) into one range per thread and concatenates the results.
+     */
+    private int[] parallel(final int size, final RangeTask task) {
+        final ArrayList<Future<IntList>> parts = new ArrayList<Future<IntList>>();
+        for (int t = 0; t < threads; t++) {
+            final int begin = (int) ((long) size * t / threads);
+            final int end = (int) ((long) size * (t + 1) / threads);
+            parts.add(pool.submit(() -> {
+                final IntList out = new IntList();
+                task.run(begin, end, out);
+                return out;
+            }));
+        }
+        final IntList all = new IntList();
+        for (Future<IntList> part : parts) {
+            try {
+                all.addAll(part.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("solver interrupted", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("solver thread failed", ex.getCause());
+            }
+        }
+        return all.toArray();
+    }
+
+    /**
+     * growable int array, so the frontiers do not box millions of Integers.
+     */
+    private static class IntList {
+        private int[] elements = new int[1024];
+        private int size;
+
+        void add(final int element) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size * 2);
+            }
+            elements[size++] = element;
+        }
+
+        void addAll(final IntList other) {
+            if (size + other.size > elements.length) {
+                elements = Arrays.copyOf(elements, Integer.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.elements, 0, elements, size, other.size);
+            size += other.size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(elements, size);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package torgeros.connect3.agent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of one getBestMove, with the SearchStatistics of the search. The duration of the event is the time
+ * of the whole move. Recorded with e.g. "java -XX:StartFlightRecording=filename=game.jfr ...",
+ * and shown with "jfr print --events torgeros.connect3.Search game.jfr" or in JDK Mission Control.
+ * Without a recording, begin and commit do next to nothing.
+ */
+@Name("torgeros.connect3.Search")
+@Label("Search")
+@Category("Ternary")
+@Description("Search for one move")
+@StackTrace(false)
+class SearchEvent extends Event {
+    @Label("Engine")
+    String engine;
+
+    @Label("Color")
+    String color;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Nodes")
+    long nodes;
+
+    @Label("Leaf Evaluations")
+    long leafEvaluations;
+
+    @Label("Cutoffs")
+    long cutoffs;
+
+    @Label("First Move Cutoffs")
+    long firstMoveCutoffs;
+
+    @Label("Repetition Draws")
+    long repetitionDraws;
+
+    @Label("Table Probes")
+    long tableProbes;
+
+    @Label("Table Hits")
+    long tableHits;
+
+    @Label("Effective Branching Factor")
+    double effectiveBranchingFactor;
+
+    @Label("Nodes per Second")
+    double nodesPerSecond;
+
+    /**
+     * the first use of an event class starts up JFR, which takes a few hundred milliseconds.
+     * Agents call this when they are created, so that time does not count towards their first move.
+     */
+    static void load() {
+        // initializing this class is all it takes
+    }
+
+    SearchEvent(final String engine, final String color) {
+        this.engine = engine;
+        this.color = color;
+    }
+
+    /**
+     * ends the event and commits it with the given statistics, if it is recorded.
+     */
+    void commit(final SearchStatistics statistics) {
+        end();
+        if (!shouldCommit()) {
+            return;
+        }
+        depth = statistics.depth;
+        nodes = statistics.nodes;
+        leafEvaluations = statistics.leafEvaluations;
+        cutoffs = statistics.cutoffs;
+        firstMoveCutoffs = statistics.firstMoveCutoffs;
+        repetitionDraws = statistics.repetitionDraws;
+        tableProbes = statistics.tableProbes;
+        tableHits = statistics.tableHits;
+        effectiveBranchingFactor = statistics.effectiveBranchingFactor();
+        nodesPerSecond = statistics.nodesPerSecond();
+        commit();
+    }
+}
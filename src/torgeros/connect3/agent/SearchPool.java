@@ -0,0 +1,70 @@
+package torgeros.connect3.agent;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * fixed number of daemon threads that run SearchTasks, the most urgent one first:
+ * main searches (a move is due), then helper searches, then pondering. Tasks of the same kind run first come, first served.
+ *
+ * An agent either has a pool of its own for its helpers, or shares one with the agents of all games of a GameHost
+ * (see AiOptions#pool). A shared pool also runs the main searches, so its size bounds the searching threads of the
+ * process. Pondering never ends by itself, so a pondering search stops as soon as a main search is waiting,
+ * see mainSearchWaiting.
+ */
+public class SearchPool {
+    static final int MAIN = 0;
+    static final int HELPER = 1;
+    static final int PONDER = 2;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * number of submitted main searches that have not started yet.
+     */
+    private final AtomicInteger waitingMainSearches = new AtomicInteger();
+
+    /**
+     * @param name name of the threads
+     */
+    public SearchPool(final int threads, final String name) {
+        // only SearchTasks are queued, they are ordered by SearchTask#compareTo
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    // workers must not keep the program alive after the games
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    void execute(final SearchTask task) {
+        if (task.priority == MAIN) {
+            waitingMainSearches.incrementAndGet();
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * called by a main search task when it starts, or is skipped.
+     */
+    void mainSearchLeftQueue() {
+        waitingMainSearches.decrementAndGet();
+    }
+
+    /**
+     * @return true if a main search waits for a thread of this pool
+     */
+    boolean mainSearchWaiting() {
+        return waitingMainSearches.get() > 0;
+    }
+
+    /**
+     * stops all threads. Tasks that have not started are dropped, the searches have to be told to stop before.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
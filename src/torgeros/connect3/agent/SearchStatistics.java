@@ -0,0 +1,93 @@
+package torgeros.connect3.agent;
+
+/**
+ * what the search for one move did, see Agent#lastSearch.
+ * The counters are collected per search thread without synchronization and summed up when the search is done.
+ * Every search is also recorded as a SearchEvent while a JFR recording is running.
+ */
+public class SearchStatistics {
+    /**
+     * deepest completed iteration (Ai) or deepest node of the tree (MctsAi), 0 if the move was not searched.
+     */
+    public final int depth;
+
+    /**
+     * nodes visited by all threads.
+     */
+    public final long nodes;
+
+    /**
+     * time of getBestMove in nanoseconds.
+     */
+    public final long elapsedNs;
+
+    /**
+     * nodes scored by the heuristic at the depth limit (Ai), or playouts (MctsAi).
+     */
+    public final long leafEvaluations;
+
+    /**
+     * beta cutoffs, and how many of them were caused by the first move searched.
+     */
+    public final long cutoffs;
+    public final long firstMoveCutoffs;
+
+    /**
+     * nodes scored as a draw by the threefold repetition rule.
+     */
+    public final long repetitionDraws;
+
+    /**
+     * lookups in the transposition table, and how many of them found an entry. 0 for agents without a table.
+     */
+    public final long tableProbes;
+    public final long tableHits;
+
+    public SearchStatistics(final int depth, final long nodes, final long elapsedNs) {
+        this(depth, nodes, elapsedNs, 0, 0, 0, 0, 0, 0);
+    }
+
+    public SearchStatistics(final int depth, final long nodes, final long elapsedNs, final long leafEvaluations,
+            final long cutoffs, final long firstMoveCutoffs, final long repetitionDraws,
+            final long tableProbes, final long tableHits) {
+        this.depth = depth;
+        this.nodes = nodes;
+        this.elapsedNs = elapsedNs;
+        this.leafEvaluations = leafEvaluations;
+        this.cutoffs = cutoffs;
+        this.firstMoveCutoffs = firstMoveCutoffs;
+        this.repetitionDraws = repetitionDraws;
+        this.tableProbes = tableProbes;
+        this.tableHits = tableHits;
+    }
+
+    public double nodesPerSecond() {
+        return elapsedNs > 0 ? nodes * 1e9 / elapsedNs : 0;
+    }
+
+    /**
+     * @return share of the cutoffs that happened on the first move, the higher the better the move ordering.
+     */
+    public double firstMoveCutoffRate() {
+        return cutoffs > 0 ? (double) firstMoveCutoffs / cutoffs : 0;
+    }
+
+    public double tableHitRate() {
+        return tableProbes > 0 ? (double) tableHits / tableProbes : 0;
+    }
+
+    /**
+     * @return the branching factor b of a uniform tree of the searched depth with as many nodes, b^depth = nodes.
+     */
+    public double effectiveBranchingFactor() {
+        return depth > 0 && nodes > 1 ? Math.pow(nodes, 1.0 / depth) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth %d, %d nodes, %d leaf evaluations, %.0f nodes/s, branching factor %.2f, "
+                + "%d cutoffs (%.1f%% on the first move), %d repetition draws, %d table probes (%.1f%% hits)",
+                depth, nodes, leafEvaluations, nodesPerSecond(), effectiveBranchingFactor(),
+                cutoffs, 100 * firstMoveCutoffRate(), repetitionDraws, tableProbes, 100 * tableHitRate());
+    }
+}
@@ -0,0 +1,103 @@
+package torgeros.connect3.agent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a search of an agent, run by a SearchPool that may be shared by the agents of several games (see AiOptions#pool).
+ * A helper or pondering task that has not started when the search is over is skipped instead of waited for,
+ * so a pool that is busy with the helpers of other games never delays a move.
+ */
+class SearchTask implements Runnable, Comparable<SearchTask> {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int SKIPPED = 2;
+
+    /**
+     * submission order, so tasks of the same priority run first come, first served.
+     */
+    private static final AtomicLong SUBMITTED = new AtomicLong();
+
+    /**
+     * SearchPool#MAIN, SearchPool#HELPER or SearchPool#PONDER.
+     */
+    final int priority;
+    private final long sequence = SUBMITTED.getAndIncrement();
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final SearchPool pool;
+    private final Runnable search;
+    private RuntimeException failure;
+
+    private SearchTask(final SearchPool pool, final int priority, final Runnable search) {
+        this.pool = pool;
+        this.priority = priority;
+        this.search = search;
+    }
+
+    static SearchTask submit(final SearchPool pool, final int priority, final Runnable search) {
+        final SearchTask task = new SearchTask(pool, priority, search);
+        pool.execute(task);
+        return task;
+    }
+
+    /**
+     * runs the search on the pool and waits until it has returned. Used for the main search on a shared pool.
+     */
+    static void run(final SearchPool pool, final Runnable search) {
+        final SearchTask task = submit(pool, SearchPool.MAIN, search);
+        task.await();
+    }
+
+    @Override
+    public void run() {
+        if (!state.compareAndSet(QUEUED, RUNNING)) {
+            return;
+        }
+        if (priority == SearchPool.MAIN) {
+            pool.mainSearchLeftQueue();
+        }
+        try {
+            search.run();
+        } catch (RuntimeException ex) {
+            failure = ex;
+        } finally {
+            done.countDown();
+        }
+    }
+
+    @Override
+    public int compareTo(final SearchTask other) {
+        if (priority != other.priority) {
+            return Integer.compare(priority, other.priority);
+        }
+        return Long.compare(sequence, other.sequence);
+    }
+
+    /**
+     * skips the task if it has not started yet, otherwise waits until it has returned.
+     * The search has to be told to stop before.
+     */
+    void finish() {
+        if (state.compareAndSet(QUEUED, SKIPPED)) {
+            if (priority == SearchPool.MAIN) {
+                pool.mainSearchLeftQueue();
+            }
+            return;
+        }
+        await();
+    }
+
+    private void await() {
+        try {
+            done.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (failure != null) {
+            throw new IllegalStateException("search failed", failure);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package torgeros.connect3.agent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * perfect-play value of every position of the 5x4 game, as computed by RetrogradeSolver.
+ *
+ * A position is any placement of 4 white and 4 black stones on the 20 fields.
+ * The side to move is not stored: every move changes the sum of all stone coordinates by one,
+ * so it follows from the parity of that sum (see whiteToMove).
+ *
+ * Fields are numbered x + y * WIDTH here (zero-based, no guard bits), a set of fields is an int bit mask.
+ * The index of a position is rank(white) * C(16,4) + rank(black among the 16 fields not taken by white),
+ * with the rank of a 4-subset in the combinatorial number system. So every position has exactly one index
+ * and the file holds one byte per position, without keys or gaps.
+ *
+ * File layout: MAGIC, WIDTH, HEIGHT, STONES as ints, then POSITIONS value bytes.
+ * A value is from the point of view of the side to move:
+ *  0       draw, neither side can force a win
+ *  d > 0   win, three in a row after d more plies at best play of both sides
+ *  d < 0   loss, the opponent gets three in a row after -d-1 more plies at best play of both sides
+ */
+public class Solution {
+    public static final int WIDTH = 5;
+    public static final int HEIGHT = 4;
+    public static final int CELLS = WIDTH * HEIGHT;
+    public static final int STONES = 4;
+
+    static final int MAGIC = 0x54335253;
+    static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+    /**
+     * BINOMIAL[n][k] = n choose k, for n <= CELLS and k <= STONES.
+     */
+    static final int[][] BINOMIAL = new int[CELLS + 1][STONES + 1];
+
+    static {
+        for (int n = 0; n <= CELLS; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= STONES && k <= n; k++) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + (k < n ? BINOMIAL[n - 1][k] : 0);
+            }
+        }
+    }
+
+    /**
+     * number of placements of the black stones on the fields not taken by white.
+     */
+    static final int BLACK_PLACEMENTS = BINOMIAL[CELLS - STONES][STONES];
+    static final int POSITIONS = BINOMIAL[CELLS][STONES] * BLACK_PLACEMENTS;
+
+    /**
+     * fields with an odd coordinate sum x + y.
+     * In the start position (see ConnectThree) the coordinate sum of all stones is even and white moves.
+     */
+    static final int ODD_CELLS;
+
+    static {
+        int odd = 0;
+        for (int i = 0; i < CELLS; i++) {
+            if (((i % WIDTH) + (i / WIDTH)) % 2 == 1) {
+                odd |= 1 << i;
+            }
+        }
+        ODD_CELLS = odd;
+    }
+
+    private final MappedByteBuffer values;
+
+    private Solution(final MappedByteBuffer values) {
+        this.values = values;
+    }
+
+    /**
+     * maps the file written by RetrogradeSolver into memory. The file is read lazily by the OS,
+     * opening it does not read the values.
+     * @throws IOException if the file can not be read or is not a solution of this game
+     */
+    public static Solution open(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != HEADER_BYTES + (long) POSITIONS) {
+                throw new IOException(String.format("%s has %d bytes, expected %d", path, channel.size(), HEADER_BYTES + (long) POSITIONS));
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != WIDTH || buffer.getInt(8) != HEIGHT || buffer.getInt(12) != STONES) {
+                throw new IOException(String.format("%s is not a solution of the %dx%d game", path, WIDTH, HEIGHT));
+            }
+            return new Solution(buffer);
+        }
+    }
+
+    static ByteBuffer header() {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(WIDTH).putInt(HEIGHT).putInt(STONES);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * @return true if the node is a position of the solved game, i.e. a 5x4 board with 4 stones per color.
+     */
+    public boolean covers(final Bitboard node) {
+        return node.layout.width == WIDTH && node.layout.height == HEIGHT
+                && Long.bitCount(node.white) == STONES && Long.bitCount(node.black) == STONES;
+    }
+
+    /**
+     * @param node has to be covered, see covers
+     * @return the value of node for the side to move, see the encoding above
+     */
+    public int probe(final Bitboard node) {
+        final int white = cells(node.layout, node.white);
+        final int black = cells(node.layout, node.black);
+        return values.get(HEADER_BYTES + index(white, black));
+    }
+
+    /**
+     * converts bitboard bits (with guard bits) into the field numbering of this class.
+     */
+    static int cells(final BitboardLayout layout, long stones) {
+        int cells = 0;
+        while (stones != 0) {
+            final int index = Long.numberOfTrailingZeros(stones);
+            stones &= stones - 1;
+            cells |= 1 << (layout.x(index) + layout.y(index) * WIDTH);
+        }
+        return cells;
+    }
+
+    static int index(final int white, final int black) {
+        return rank(white) * BLACK_PLACEMENTS + rank(compress(black, white));
+    }
+
+    /**
+     * @return rank of a set of STONES fields among all sets of STONES fields, in the combinatorial number system.
+     */
+    static int rank(int cells) {
+        int rank = 0;
+        for (int k = 1; cells != 0; k++) {
+            rank += BINOMIAL[Integer.numberOfTrailingZeros(cells)][k];
+            cells &= cells - 1;
+        }
+        return rank;
+    }
+
+    /**
+     * renumbers the fields of cells so that the fields in taken are skipped.
+     */
+    static int compress(int cells, final int taken) {
+        int compressed = 0;
+        while (cells != 0) {
+            final int field = Integer.numberOfTrailingZeros(cells);
+            cells &= cells - 1;
+            compressed |= 1 << (field - Integer.bitCount(taken & ((1 << field) - 1)));
+        }
+        return compressed;
+    }
+
+    static boolean whiteToMove(final int white, final int black) {
+        return (Integer.bitCount((white | black) & ODD_CELLS) & 1) == 0;
+    }
+}
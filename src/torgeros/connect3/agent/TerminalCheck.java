@@ -0,0 +1,102 @@
+package torgeros.connect3.agent;
+
+import java.util.Random;
+
+import torgeros.connect3.Board;
+import torgeros.connect3.Board.Field;
+
+/**
+ * differential check of the win detection: plays random games and compares after every move
+ * the full scans (Board#isTerminal(), Bitboard#isTerminal) with the checks of the last move only
+ * (Board#isTerminal(int, int), Bitboard#isWinningMove). Also compares Bitboard#threats of every position
+ * with the wins found by trying all moves.
+ */
+public class TerminalCheck {
+    /**
+     * a game that is not over after this many plies is stopped, random games can repeat positions forever.
+     */
+    private static final int MAX_PLIES = 200;
+
+    /**
+     * plays the given number of random games from start, white moves first, and prints the result.
+     * @return number of positions in which the checks disagree
+     */
+    public static long run(final Board start, final int games, final long seed) {
+        final BitboardLayout layout = new BitboardLayout(start.width, start.height);
+        final Random random = new Random(seed);
+        final int[] moves = new int[4 * layout.width * layout.height];
+        long plies = 0;
+        long wins = 0;
+        long mismatches = 0;
+        for (int game = 0; game < games; game++) {
+            final Board board = new Board(start.width, start.height);
+            for (int x = 1; x <= start.width; x++) {
+                for (int y = 1; y <= start.height; y++) {
+                    board.set(x, y, start.get(x, y));
+                }
+            }
+            final Bitboard node = Bitboard.fromBoard(board, layout);
+            Field color = Field.WHITE;
+            for (int ply = 0; ply < MAX_PLIES; ply++) {
+                final int count = node.generateMoves(color, moves);
+                if (count == 0) {
+                    break;
+                }
+                for (Field threatening : new Field[] {Field.WHITE, Field.BLACK}) {
+                    final long expected = winningFields(node, threatening);
+                    if (node.threats(threatening) != expected) {
+                        mismatches++;
+                        report(board, String.format("threats of %s: %x, expected %x", threatening, node.threats(threatening), expected));
+                    }
+                }
+
+                final int move = moves[random.nextInt(count)];
+                final int to = Move.to(move);
+                node.makeMove(color, move);
+                board.set(layout.x(Move.from(move)) + 1, layout.y(Move.from(move)) + 1, Field.EMPTY);
+                board.set(layout.x(to) + 1, layout.y(to) + 1, color);
+                plies++;
+
+                final boolean full = board.isTerminal();
+                final boolean local = board.isTerminal(layout.x(to) + 1, layout.y(to) + 1);
+                final boolean bitboardFull = node.isTerminal();
+                final boolean bitboardLocal = node.isWinningMove(color, move);
+                if (full != local || full != bitboardFull || full != bitboardLocal) {
+                    mismatches++;
+                    report(board, String.format("after %s: Board %b, last move %b, Bitboard %b, winning move %b",
+                            Move.toServerString(layout, move), full, local, bitboardFull, bitboardLocal));
+                }
+                if (full) {
+                    wins++;
+                    break;
+                }
+                color = color == Field.WHITE ? Field.BLACK : Field.WHITE;
+            }
+        }
+        System.out.printf("%dx%d: %d games, %d moves, %d wins, %d mismatches.%n",
+                start.width, start.height, games, plies, wins, mismatches);
+        return mismatches;
+    }
+
+    /**
+     * @return the fields that color can move to to make three in a row, found by making every move
+     */
+    private static long winningFields(final Bitboard node, final Field color) {
+        final int[] moves = new int[4 * node.layout.width * node.layout.height];
+        final int count = node.generateMoves(color, moves);
+        long fields = 0;
+        for (int i = 0; i < count; i++) {
+            node.makeMove(color, moves[i]);
+            if (node.runs(color) == Bitboard.RUN_OF_THREE) {
+                fields |= 1L << Move.to(moves[i]);
+            }
+            node.unmakeMove(color, moves[i]);
+        }
+        return fields;
+    }
+
+    private static void report(final Board board, final String message) {
+        System.out.println(message);
+        board.print();
+    }
+}
@@ -0,0 +1,111 @@
+package torgeros.connect3.agent;
+
+/**
+ * decides how long one move is searched.
+ *
+ * The server gives a fixed time per move, there is no game clock, so every move gets the same budget:
+ * - the hard deadline is the budget itself. The search is stopped there, no matter what.
+ * - a new iteration is not started if it would not finish before the hard deadline anyway.
+ *   Its duration is predicted from the last one times the effective branching factor,
+ *   the ratio between the durations of the last two iterations. This is what usually ends the search.
+ * - the soft deadline (SOFT_SHARE of the budget) is checked between iterations: no new iteration is started after it.
+ *   It is only a cap for when the prediction is wrong, e.g. after iterations that were fast because of table hits.
+ *   An interrupted iteration still gives a move (see Ai#getBestMove), so stopping early would only leave time unused.
+ *   In the last tenth of the budget an iteration rarely gets past its first root move, though.
+ *   It is moved back by EXTENSION_SHARE of the budget whenever the best move changed in the last iteration,
+ *   since the search has not settled yet.
+ *
+ * All times are System.nanoTime(), which is monotonic. The search polls hardDeadlinePassed only every few nodes,
+ * see Ai.Searcher#countNode.
+ */
+class TimeManager {
+    private static final double SOFT_SHARE = 0.9;
+    private static final double EXTENSION_SHARE = 0.05;
+
+    /**
+     * iterations faster than this are too short to measure a branching factor.
+     */
+    private static final long MIN_MEASURABLE_NS = 1_000_000L;
+    private static final double DEFAULT_BRANCHING_FACTOR = 3;
+    private static final double MAX_BRANCHING_FACTOR = 16;
+
+    private final long budgetNs;
+
+    private long start;
+    private long softDeadline;
+    private long hardDeadline;
+    private boolean pondering;
+
+    private long iterationStart;
+    private long lastIterationNs;
+    private double branchingFactor;
+
+    /**
+     * @param budgetMs time for one move, including the time to send it
+     */
+    public TimeManager(final int budgetMs) {
+        budgetNs = budgetMs * 1_000_000L;
+    }
+
+    /**
+     * called when the search for a move starts.
+     */
+    public void startMove() {
+        start = System.nanoTime();
+        pondering = false;
+        hardDeadline = start + budgetNs;
+        softDeadline = start + (long) (budgetNs * SOFT_SHARE);
+        iterationStart = start;
+        lastIterationNs = 0;
+        branchingFactor = DEFAULT_BRANCHING_FACTOR;
+    }
+
+    /**
+     * called when pondering starts: there is no deadline, pondering is only stopped from outside.
+     */
+    public void startPondering() {
+        start = System.nanoTime();
+        pondering = true;
+    }
+
+    public boolean isPondering() {
+        return pondering;
+    }
+
+    public boolean hardDeadlinePassed() {
+        return !pondering && System.nanoTime() - hardDeadline > 0;
+    }
+
+    /**
+     * called after every completed iteration of the main searcher.
+     * @param bestMoveChanged true if the iteration found another best move than the one before
+     */
+    public void iterationCompleted(final boolean bestMoveChanged) {
+        final long now = System.nanoTime();
+        final long duration = now - iterationStart;
+        if (lastIterationNs >= MIN_MEASURABLE_NS) {
+            branchingFactor = Math.min(MAX_BRANCHING_FACTOR, Math.max(1, (double) duration / lastIterationNs));
+        }
+        lastIterationNs = duration;
+        iterationStart = now;
+        if (bestMoveChanged) {
+            softDeadline = Math.min(hardDeadline, softDeadline + (long) (budgetNs * EXTENSION_SHARE));
+        }
+    }
+
+    /**
+     * @return true if there is enough time left to start and complete another iteration
+     */
+    public boolean canStartIteration() {
+        final long now = System.nanoTime();
+        if (now - softDeadline > 0) {
+            return false;
+        }
+        final long predicted = (long) (lastIterationNs * branchingFactor);
+        return now + predicted - hardDeadline < 0;
+    }
+
+    public long elapsedMs() {
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+}
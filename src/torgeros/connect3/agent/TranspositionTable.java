@@ -0,0 +1,124 @@
+package torgeros.connect3.agent;
+
+import java.util.Arrays;
+
+/**
+ * fixed-size hash table of search results, keyed by Zobrist hash.
+ *
+ * Every entry is two longs: the full 64 bit hash XORed with the data word, and the packed data word
+ *  bits  0-31 score
+ *  bits 32-47 best move (see Move)
+ *  bits 48-55 depth
+ *  bits 56-57 bound (BOUND_EXACT, BOUND_LOWER, BOUND_UPPER)
+ *  bits 58-63 generation, i.e. the search that stored the entry (see newSearch)
+ * A data word of 0 marks an empty entry, since every stored entry has a bound.
+ *
+ * The table is shared by all search threads without locks. Two threads writing the same entry at once
+ * can leave it with the key of one and the data of the other. Since the key is stored XORed with the data,
+ * such a mixed entry does not match any hash and simply reads as a miss.
+ *
+ * Replacement policy: entries are grouped in buckets of two.
+ * The first entry of a bucket is depth-preferred, it is only replaced by a result of at least the same depth
+ * (or the same position), or if it was stored by an older search. Everything else goes into the second entry,
+ * which is always replaced.
+ *
+ * The table is kept between the moves of a game. Entries do not depend on the root of the search that stored them,
+ * so the subtree below the moves that were actually played is still valid in the next search.
+ * Old entries are only aged out through the generation, so deep results from earlier searches
+ * do not block the first entry of their bucket for the rest of the game.
+ */
+class TranspositionTable {
+    public static final int BOUND_EXACT = 1;
+    /**
+     * the real score is at least the stored score (fail high).
+     */
+    public static final int BOUND_LOWER = 2;
+    /**
+     * the real score is at most the stored score (fail low).
+     */
+    public static final int BOUND_UPPER = 3;
+
+    private static final int LONGS_PER_ENTRY = 2;
+    private static final int ENTRIES_PER_BUCKET = 2;
+    private static final int LONGS_PER_BUCKET = LONGS_PER_ENTRY * ENTRIES_PER_BUCKET;
+    private static final int GENERATION_SHIFT = 58;
+    private static final int GENERATION_MASK = 0x3F;
+
+    private final long[] table;
+    private final int bucketMask;
+    private int generation;
+
+    /**
+     * @param megabytes memory budget, the number of buckets is rounded down to a power of two.
+     */
+    public TranspositionTable(final int megabytes) {
+        long buckets = Long.highestOneBit(((long) megabytes << 20) / (LONGS_PER_BUCKET * Long.BYTES));
+        // a java array can hold at most 2^31-1 longs
+        buckets = Math.min(buckets, 1L << 29);
+        table = new long[(int) buckets * LONGS_PER_BUCKET];
+        bucketMask = (int) buckets - 1;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0);
+    }
+
+    /**
+     * called before every search. Entries of earlier searches can still be probed,
+     * but are replaced before entries of the new search.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & GENERATION_MASK;
+    }
+
+    /**
+     * @return the data word stored for hash, 0 if there is none.
+     */
+    public long probe(final long hash) {
+        final int bucket = ((int) hash & bucketMask) * LONGS_PER_BUCKET;
+        for (int i = bucket; i < bucket + LONGS_PER_BUCKET; i += LONGS_PER_ENTRY) {
+            final long data = table[i + 1];
+            if ((table[i] ^ data) == hash && data != 0) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    public void store(final long hash, final int depth, final int score, final int bound, final int move) {
+        final int bucket = ((int) hash & bucketMask) * LONGS_PER_BUCKET;
+        final long data = (score & 0xFFFFFFFFL)
+                | ((long) move << 32)
+                | ((long) depth << 48)
+                | ((long) bound << 56)
+                | ((long) generation << GENERATION_SHIFT);
+        int i = bucket;
+        final long preferred = table[bucket + 1];
+        if (preferred != 0 && (table[bucket] ^ preferred) != hash && depth < depth(preferred)
+                && generation(preferred) == generation) {
+            i += LONGS_PER_ENTRY;
+        }
+        table[i] = hash ^ data;
+        table[i + 1] = data;
+    }
+
+    public static int score(final long data) {
+        return (int) data;
+    }
+
+    public static int move(final long data) {
+        return (int) (data >>> 32) & 0xFFFF;
+    }
+
+    public static int depth(final long data) {
+        return (int) (data >>> 48) & 0xFF;
+    }
+
+    public static int bound(final long data) {
+        return (int) (data >>> 56) & 0x3;
+    }
+
+    private static int generation(final long data) {
+        return (int) (data >>> GENERATION_SHIFT) & GENERATION_MASK;
+    }
+}
@@ -0,0 +1,60 @@
+package torgeros.connect3.agent;
+
+import java.util.Random;
+
+import torgeros.connect3.Board.Field;
+
+/**
+ * 64 bit Zobrist keys for bitboards.
+ * The hash of a node is the XOR of one random key per stone, so a move updates it with two XORs.
+ *
+ * The side to move is not part of the hash: every move changes the sum of all stone coordinates by one,
+ * so the side to move is already determined by the board (and the start position).
+ */
+class Zobrist {
+    /**
+     * fixed seed, so hashes are the same in every run.
+     */
+    private static final long SEED = 0x7E47A2B1C3D4E5F6L;
+
+    /**
+     * one key per color and bit index, indexed by Field#ordinal() (WHITE, BLACK).
+     */
+    private static final long[][] KEYS = new long[2][Long.SIZE];
+
+    static {
+        Random random = new Random(SEED);
+        for (int c = 0; c < KEYS.length; c++) {
+            for (int i = 0; i < Long.SIZE; i++) {
+                KEYS[c][i] = random.nextLong();
+            }
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * computes the hash of a node from scratch.
+     */
+    public static long hash(final long white, final long black) {
+        return hashStones(KEYS[Field.WHITE.ordinal()], white) ^ hashStones(KEYS[Field.BLACK.ordinal()], black);
+    }
+
+    private static long hashStones(final long[] keys, long stones) {
+        long hash = 0;
+        while (stones != 0) {
+            hash ^= keys[Long.numberOfTrailingZeros(stones)];
+            stones &= stones - 1;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the value to XOR into a hash when a stone of the given color moves from one bit index to another
+     */
+    public static long move(final Field color, final int from, final int to) {
+        final long[] keys = KEYS[color.ordinal()];
+        return keys[from] ^ keys[to];
+    }
+}